@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage.benchmark;
+
+import com.jsibbold.zoomage.core.ZoomTransform;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the per event cost of the pan, pinch and bounds restricted pan paths of
+ * {@link ZoomTransform}, as run for every touch event of a gesture. Each benchmark moves
+ * back and forth so the transform stays in a realistic range however many times it runs.
+ */
+@State(Scope.Thread)
+public class ZoomTransformBenchmark {
+
+    private static final float VIEW_WIDTH = 1080;
+    private static final float VIEW_HEIGHT = 1920;
+    private static final float IMAGE_WIDTH = 4000;
+    private static final float IMAGE_HEIGHT = 3000;
+
+    private final ZoomTransform transform = new ZoomTransform();
+    private final ZoomTransform restrictedTransform = new ZoomTransform();
+
+    private float focusX;
+    private float focusY;
+    private float step;
+    private boolean zoomingIn;
+    private int event;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        setUp(transform, false);
+        setUp(restrictedTransform, true);
+
+        focusX = VIEW_WIDTH / 2;
+        focusY = VIEW_HEIGHT / 2;
+        step = 12;
+        zoomingIn = true;
+        event = 0;
+    }
+
+    private static void setUp(final ZoomTransform transform, final boolean restrictBounds) {
+        final float fitScale = VIEW_WIDTH / IMAGE_WIDTH;
+
+        transform.setViewSize(VIEW_WIDTH, VIEW_HEIGHT);
+        transform.setImageSize(IMAGE_WIDTH, IMAGE_HEIGHT);
+        transform.setStartScale(fitScale);
+        transform.setRestrictBounds(restrictBounds);
+
+        //zoomed in and centered, as during a pan
+        final float scale = fitScale * 3;
+        transform.setValues(scale, scale,
+                (VIEW_WIDTH - IMAGE_WIDTH * scale) / 2,
+                (VIEW_HEIGHT - IMAGE_HEIGHT * scale) / 2);
+    }
+
+    /**
+     * Move the touch focus, turning around every so many events.
+     */
+    private void nextFocus() {
+        if (++event % 64 == 0) {
+            step = -step;
+        }
+
+        focusX += step;
+        focusY += step;
+    }
+
+    @Benchmark
+    public float pan() {
+        final float lastX = focusX;
+        final float lastY = focusY;
+        nextFocus();
+
+        transform.postTranslate(transform.getXDistance(focusX, lastX, false),
+                transform.getYDistance(focusY, lastY, false));
+        return transform.getTranslateX();
+    }
+
+    @Benchmark
+    public float pinch() {
+        if (++event % 64 == 0) {
+            zoomingIn = !zoomingIn;
+        }
+
+        final float scaleBy = transform.getClampedScaleBy(transform.getScaleX() * (zoomingIn ? 1.01f : 0.99f));
+        transform.postScale(scaleBy, focusX, focusY);
+        return transform.getScaleX();
+    }
+
+    @Benchmark
+    public float restrictedPan() {
+        final float lastX = focusX;
+        final float lastY = focusY;
+        nextFocus();
+
+        restrictedTransform.postTranslate(restrictedTransform.getXDistance(focusX, lastX, false),
+                restrictedTransform.getYDistance(focusY, lastY, false));
+        return restrictedTransform.getCenteredTranslationX() + restrictedTransform.getCenteredTranslationY();
+    }
+}
@@ -0,0 +1,480 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage.core;
+
+/**
+ * The scaling, translation and bounds math behind a zoomable image, independent of any
+ * platform. It works on a scale and translation affine transform held as primitive floats,
+ * the image's size and the size of the view it's displayed in, so it can be tested and
+ * benchmarked on a plain JVM. It never allocates.
+ *
+ * Values can be read from and written to arrays laid out like those of
+ * {@code android.graphics.Matrix#getValues(float[])}, using the index constants of this class.
+ */
+public final class ZoomTransform {
+
+    public static final int MSCALE_X = 0;
+    public static final int MTRANS_X = 2;
+    public static final int MSCALE_Y = 4;
+    public static final int MTRANS_Y = 5;
+
+    public static final int RESET_UNDER = 0;
+    public static final int RESET_OVER = 1;
+    public static final int RESET_ALWAYS = 2;
+    public static final int RESET_NEVER = 3;
+
+    public static final float MIN_SCALE = 0.6f;
+    public static final float MAX_SCALE = 8f;
+
+    private float scaleX = 1f;
+    private float scaleY = 1f;
+    private float translateX;
+    private float translateY;
+
+    private float imageWidth;
+    private float imageHeight;
+    private float viewWidth;
+    private float viewHeight;
+
+    //the bounds of the displayed image
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+
+    private float minScale = MIN_SCALE;
+    private float maxScale = MAX_SCALE;
+
+    //the adjusted scale bounds that account for an image's starting scale values
+    private float startScale = 1f;
+    private float calculatedMinScale = MIN_SCALE;
+    private float calculatedMaxScale = MAX_SCALE;
+
+    private boolean restrictBounds;
+    private int autoResetMode = RESET_UNDER;
+
+    /**
+     * Set the minimum and maximum allowed scale, relative to the starting scale.
+     *
+     * @param minScale minimum allowed scale
+     * @param maxScale maximum allowed scale
+     */
+    public void setScaleRange(final float minScale, final float maxScale) {
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        setStartScale(startScale);
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    /**
+     * Set the scale the image started at, which the allowed scale range is relative to.
+     *
+     * @param startScale the starting scale
+     */
+    public void setStartScale(final float startScale) {
+        this.startScale = startScale;
+        calculatedMinScale = minScale * startScale;
+        calculatedMaxScale = maxScale * startScale;
+    }
+
+    public float getStartScale() {
+        return startScale;
+    }
+
+    /**
+     * If restricted bounds are enabled, the image will not be allowed to translate
+     * farther inward than the edges of the view, unless the corresponding
+     * dimension is smaller than those of the view.
+     *
+     * @param restrictBounds true if bounds should be restricted to the view's edges
+     */
+    public void setRestrictBounds(final boolean restrictBounds) {
+        this.restrictBounds = restrictBounds;
+    }
+
+    public boolean getRestrictBounds() {
+        return restrictBounds;
+    }
+
+    /**
+     * Set when the image should reset once interaction stops, one of
+     * {@link #RESET_UNDER}, {@link #RESET_OVER}, {@link #RESET_ALWAYS} or {@link #RESET_NEVER}.
+     *
+     * @param autoResetMode the reset mode
+     */
+    public void setAutoResetMode(final int autoResetMode) {
+        this.autoResetMode = autoResetMode;
+    }
+
+    public int getAutoResetMode() {
+        return autoResetMode;
+    }
+
+    /**
+     * Set the size of the view the image is displayed in.
+     *
+     * @param width  the width of the view
+     * @param height the height of the view
+     */
+    public void setViewSize(final float width, final float height) {
+        this.viewWidth = width;
+        this.viewHeight = height;
+    }
+
+    /**
+     * Set the unscaled size of the image.
+     *
+     * @param width  the width of the image
+     * @param height the height of the image
+     */
+    public void setImageSize(final float width, final float height) {
+        this.imageWidth = width;
+        this.imageHeight = height;
+        updateBounds();
+    }
+
+    /**
+     * Set the current transform.
+     *
+     * @param scaleX     the horizontal scale
+     * @param scaleY     the vertical scale
+     * @param translateX the horizontal translation
+     * @param translateY the vertical translation
+     */
+    public void setValues(final float scaleX, final float scaleY, final float translateX, final float translateY) {
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        this.translateX = translateX;
+        this.translateY = translateY;
+        updateBounds();
+    }
+
+    /**
+     * Set the current transform from an array of matrix values.
+     *
+     * @param values the matrix values, indexed by this class's index constants
+     */
+    public void setValues(final float[] values) {
+        setValues(values[MSCALE_X], values[MSCALE_Y], values[MTRANS_X], values[MTRANS_Y]);
+    }
+
+    /**
+     * Copy the current scale and translation into an array of matrix values, leaving the other values as they are.
+     *
+     * @param values the matrix values, indexed by this class's index constants
+     */
+    public void getValues(final float[] values) {
+        values[MSCALE_X] = scaleX;
+        values[MSCALE_Y] = scaleY;
+        values[MTRANS_X] = translateX;
+        values[MTRANS_Y] = translateY;
+    }
+
+    public float getScaleX() {
+        return scaleX;
+    }
+
+    public float getScaleY() {
+        return scaleY;
+    }
+
+    public float getTranslateX() {
+        return translateX;
+    }
+
+    public float getTranslateY() {
+        return translateY;
+    }
+
+    public float getLeft() {
+        return left;
+    }
+
+    public float getTop() {
+        return top;
+    }
+
+    public float getRight() {
+        return right;
+    }
+
+    public float getBottom() {
+        return bottom;
+    }
+
+    /**
+     * @return the current width of the image as displayed
+     */
+    public float getDisplayedWidth() {
+        return imageWidth * scaleX;
+    }
+
+    /**
+     * @return the current height of the image as displayed
+     */
+    public float getDisplayedHeight() {
+        return imageHeight * scaleY;
+    }
+
+    /**
+     * Translate the current transform.
+     *
+     * @param dx the horizontal distance
+     * @param dy the vertical distance
+     */
+    public void postTranslate(final float dx, final float dy) {
+        translateX += dx;
+        translateY += dy;
+        updateBounds();
+    }
+
+    /**
+     * Scale the current transform around a pivot point.
+     *
+     * @param scale  the factor to scale by
+     * @param pivotX the horizontal pivot
+     * @param pivotY the vertical pivot
+     */
+    public void postScale(final float scale, final float pivotX, final float pivotY) {
+        scaleX *= scale;
+        scaleY *= scale;
+        translateX = pivotX + (translateX - pivotX) * scale;
+        translateY = pivotY + (translateY - pivotY) * scale;
+        updateBounds();
+    }
+
+    private void updateBounds() {
+        left = translateX;
+        top = translateY;
+        right = imageWidth * scaleX + translateX;
+        bottom = imageHeight * scaleY + translateY;
+    }
+
+    /**
+     * Get the factor to scale the current transform by to reach the target scale, clamped
+     * so the result stays within the allowed scale range.
+     *
+     * @param targetScale the desired scale
+     * @return the factor to scale by
+     */
+    public float getClampedScaleBy(final float targetScale) {
+        if (targetScale < calculatedMinScale) {
+            return calculatedMinScale / scaleX;
+        } else if (targetScale > calculatedMaxScale) {
+            return calculatedMaxScale / scaleX;
+        }
+
+        return targetScale / scaleX;
+    }
+
+    /**
+     * Get the x distance to translate the current image.
+     *
+     * @param toX     the current x location of touch focus
+     * @param fromX   the last x location of touch focus
+     * @param scaling whether a scale gesture is in progress
+     * @return the distance to move the image,
+     * will restrict the translation to keep the image on screen.
+     */
+    public float getXDistance(final float toX, final float fromX, final boolean scaling) {
+        float xdistance = toX - fromX;
+
+        if (restrictBounds) {
+            xdistance = getRestrictedXDistance(xdistance, scaling);
+        }
+
+        //prevents image from translating an infinite distance offscreen
+        if (right + xdistance < 0) {
+            xdistance = -right;
+        } else if (left + xdistance > viewWidth) {
+            xdistance = viewWidth - left;
+        }
+
+        return xdistance;
+    }
+
+    /**
+     * Get the horizontal distance to translate the current image, but restrict
+     * it to the outer bounds of the view. If the current image is smaller than
+     * the bounds, keep it within the current bounds. If it is larger, prevent
+     * its edges from translating farther inward from the outer edge.
+     *
+     * @param xdistance the current desired horizontal distance to translate
+     * @param scaling   whether a scale gesture is in progress
+     * @return the actual horizontal distance to translate with bounds restrictions
+     */
+    private float getRestrictedXDistance(final float xdistance, final boolean scaling) {
+        float restrictedXDistance = xdistance;
+
+        if (getDisplayedWidth() >= viewWidth) {
+            if (left <= 0 && left + xdistance > 0 && !scaling) {
+                restrictedXDistance = -left;
+            } else if (right >= viewWidth && right + xdistance < viewWidth && !scaling) {
+                restrictedXDistance = viewWidth - right;
+            }
+        } else if (!scaling) {
+            if (left >= 0 && left + xdistance < 0) {
+                restrictedXDistance = -left;
+            } else if (right <= viewWidth && right + xdistance > viewWidth) {
+                restrictedXDistance = viewWidth - right;
+            }
+        }
+
+        return restrictedXDistance;
+    }
+
+    /**
+     * Get the y distance to translate the current image.
+     *
+     * @param toY     the current y location of touch focus
+     * @param fromY   the last y location of touch focus
+     * @param scaling whether a scale gesture is in progress
+     * @return the distance to move the image,
+     * will restrict the translation to keep the image on screen.
+     */
+    public float getYDistance(final float toY, final float fromY, final boolean scaling) {
+        float ydistance = toY - fromY;
+
+        if (restrictBounds) {
+            ydistance = getRestrictedYDistance(ydistance, scaling);
+        }
+
+        //prevents image from translating an infinite distance offscreen
+        if (bottom + ydistance < 0) {
+            ydistance = -bottom;
+        } else if (top + ydistance > viewHeight) {
+            ydistance = viewHeight - top;
+        }
+
+        return ydistance;
+    }
+
+    /**
+     * Get the vertical distance to translate the current image, but restrict
+     * it to the outer bounds of the view. If the current image is smaller than
+     * the bounds, keep it within the current bounds. If it is larger, prevent
+     * its edges from translating farther inward from the outer edge.
+     *
+     * @param ydistance the current desired vertical distance to translate
+     * @param scaling   whether a scale gesture is in progress
+     * @return the actual vertical distance to translate with bounds restrictions
+     */
+    private float getRestrictedYDistance(final float ydistance, final boolean scaling) {
+        float restrictedYDistance = ydistance;
+
+        if (getDisplayedHeight() >= viewHeight) {
+            if (top <= 0 && top + ydistance > 0 && !scaling) {
+                restrictedYDistance = -top;
+            } else if (bottom >= viewHeight && bottom + ydistance < viewHeight && !scaling) {
+                restrictedYDistance = viewHeight - bottom;
+            }
+        } else if (!scaling) {
+            if (top >= 0 && top + ydistance < 0) {
+                restrictedYDistance = -top;
+            } else if (bottom <= viewHeight && bottom + ydistance > viewHeight) {
+                restrictedYDistance = viewHeight - bottom;
+            }
+        }
+
+        return restrictedYDistance;
+    }
+
+    /**
+     * Get the horizontal translation that pulls the image to the nearest edge
+     * if it's partially off-screen.
+     *
+     * @return the centered x translation, or the current one if it doesn't need to change
+     */
+    public float getCenteredTranslationX() {
+        if (getDisplayedWidth() > viewWidth) {
+            //the left edge is too far to the interior
+            if (left > 0) {
+                return 0;
+            }
+            //the right edge is too far to the interior
+            else if (right < viewWidth) {
+                return left + viewWidth - right;
+            }
+        } else {
+            //left edge needs to be pulled in, and should be considered before the right edge
+            if (left < 0) {
+                return 0;
+            }
+            //right edge needs to be pulled in
+            else if (right > viewWidth) {
+                return left + viewWidth - right;
+            }
+        }
+
+        return translateX;
+    }
+
+    /**
+     * Get the vertical translation that pulls the image to the nearest edge
+     * if it's partially off-screen.
+     *
+     * @return the centered y translation, or the current one if it doesn't need to change
+     */
+    public float getCenteredTranslationY() {
+        if (getDisplayedHeight() > viewHeight) {
+            //the top edge is too far to the interior
+            if (top > 0) {
+                return 0;
+            }
+            //the bottom edge is too far to the interior
+            else if (bottom < viewHeight) {
+                return top + viewHeight - bottom;
+            }
+        } else {
+            //top needs to be pulled in, and needs to be considered before the bottom edge
+            if (top < 0) {
+                return 0;
+            }
+            //bottom edge needs to be pulled in
+            else if (bottom > viewHeight) {
+                return top + viewHeight - bottom;
+            }
+        }
+
+        return translateY;
+    }
+
+    /**
+     * Whether the image should reset to its starting size, rather than stay at its current
+     * size, once interaction stops, based on the current reset mode.
+     *
+     * @return true if the image should be reset
+     */
+    public boolean shouldResetOnRelease() {
+        switch (autoResetMode) {
+            case RESET_UNDER:
+                return scaleX <= startScale;
+            case RESET_OVER:
+                return scaleX >= startScale;
+            case RESET_ALWAYS:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
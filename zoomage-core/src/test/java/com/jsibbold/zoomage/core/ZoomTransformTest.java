@@ -0,0 +1,178 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the transform math on a 200x100 image displayed in a 400x400 view, fit to the view
+ * at a starting scale of 2 and centered vertically.
+ */
+public class ZoomTransformTest {
+
+    private static final float VIEW_SIZE = 400;
+    private static final float IMAGE_WIDTH = 200;
+    private static final float IMAGE_HEIGHT = 100;
+    private static final float START_SCALE = 2f;
+    private static final float DELTA = 0.0001f;
+
+    private ZoomTransform transform;
+
+    @Before
+    public void setUp() {
+        transform = new ZoomTransform();
+        transform.setViewSize(VIEW_SIZE, VIEW_SIZE);
+        transform.setImageSize(IMAGE_WIDTH, IMAGE_HEIGHT);
+        transform.setStartScale(START_SCALE);
+        transform.setValues(START_SCALE, START_SCALE, 0, 100);
+    }
+
+    @Test
+    public void scaleWithinRangeIsNotClamped() {
+        assertEquals(1.5f, transform.getClampedScaleBy(3f), DELTA);
+    }
+
+    @Test
+    public void scaleIsClampedToRangeAroundStartScale() {
+        assertEquals(ZoomTransform.MAX_SCALE, transform.getClampedScaleBy(100f), DELTA);
+        assertEquals(ZoomTransform.MIN_SCALE, transform.getClampedScaleBy(0.1f), DELTA);
+    }
+
+    @Test
+    public void scaleIsClampedToCustomRange() {
+        transform.setScaleRange(1f, 3f);
+
+        assertEquals(3f, transform.getClampedScaleBy(10f), DELTA);
+        assertEquals(1f, transform.getClampedScaleBy(1f), DELTA);
+    }
+
+    @Test
+    public void boundsFollowValues() {
+        transform.setValues(2f, 2f, 10, 20);
+        assertBounds(10, 20, 410, 220);
+
+        transform.postTranslate(5, -5);
+        assertBounds(15, 15, 415, 215);
+
+        transform.postScale(2f, 15, 15);
+        assertBounds(15, 15, 815, 415);
+        assertEquals(4f, transform.getScaleX(), DELTA);
+        assertEquals(800, transform.getDisplayedWidth(), DELTA);
+    }
+
+    @Test
+    public void boundsFollowImageSize() {
+        transform.setImageSize(100, 50);
+
+        assertBounds(0, 100, 200, 200);
+    }
+
+    @Test
+    public void distanceIsUnrestrictedWithinView() {
+        assertEquals(50, transform.getXDistance(150, 100, false), DELTA);
+        assertEquals(-30, transform.getYDistance(70, 100, false), DELTA);
+    }
+
+    @Test
+    public void distanceStopsImageLeavingView() {
+        assertEquals(VIEW_SIZE, transform.getXDistance(1000, 0, false), DELTA);
+        assertEquals(-VIEW_SIZE, transform.getXDistance(-1000, 0, false), DELTA);
+        assertEquals(VIEW_SIZE - 100, transform.getYDistance(1000, 0, false), DELTA);
+        assertEquals(-300, transform.getYDistance(-1000, 0, false), DELTA);
+    }
+
+    @Test
+    public void restrictedDistanceKeepsLargeImageEdgesOutside() {
+        transform.setRestrictBounds(true);
+        transform.setValues(4f, 4f, 0, 0);
+
+        assertEquals(0, transform.getXDistance(150, 100, false), DELTA);
+        assertEquals(-VIEW_SIZE, transform.getXDistance(-400, 100, false), DELTA);
+        assertEquals(0, transform.getYDistance(150, 100, false), DELTA);
+    }
+
+    @Test
+    public void restrictedDistanceKeepsSmallImageInside() {
+        transform.setRestrictBounds(true);
+
+        transform.setValues(1f, 1f, 100, 0);
+        assertEquals(-100, transform.getXDistance(0, 150, false), DELTA);
+        assertEquals(100, transform.getXDistance(250, 100, false), DELTA);
+
+        transform.setValues(2f, 2f, 0, 100);
+        assertEquals(-100, transform.getYDistance(0, 150, false), DELTA);
+        assertEquals(100, transform.getYDistance(250, 100, false), DELTA);
+    }
+
+    @Test
+    public void restrictedDistanceIsFreeWhileScaling() {
+        transform.setRestrictBounds(true);
+        transform.setValues(4f, 4f, 0, 0);
+
+        assertEquals(50, transform.getXDistance(150, 100, true), DELTA);
+        assertEquals(50, transform.getYDistance(150, 100, true), DELTA);
+    }
+
+    @Test
+    public void resetsUnderStartScale() {
+        transform.setAutoResetMode(ZoomTransform.RESET_UNDER);
+
+        assertResets(1.5f, true);
+        assertResets(START_SCALE, true);
+        assertResets(3f, false);
+    }
+
+    @Test
+    public void resetsOverStartScale() {
+        transform.setAutoResetMode(ZoomTransform.RESET_OVER);
+
+        assertResets(1.5f, false);
+        assertResets(START_SCALE, true);
+        assertResets(3f, true);
+    }
+
+    @Test
+    public void resetsAlwaysOrNever() {
+        transform.setAutoResetMode(ZoomTransform.RESET_ALWAYS);
+        assertResets(1.5f, true);
+        assertResets(3f, true);
+
+        transform.setAutoResetMode(ZoomTransform.RESET_NEVER);
+        assertResets(1.5f, false);
+        assertResets(3f, false);
+    }
+
+    private void assertBounds(final float left, final float top, final float right, final float bottom) {
+        assertEquals("left", left, transform.getLeft(), DELTA);
+        assertEquals("top", top, transform.getTop(), DELTA);
+        assertEquals("right", right, transform.getRight(), DELTA);
+        assertEquals("bottom", bottom, transform.getBottom(), DELTA);
+    }
+
+    private void assertResets(final float scale, final boolean reset) {
+        transform.setValues(scale, scale, 0, 0);
+        if (reset) {
+            assertTrue("resets at " + scale, transform.shouldResetOnRelease());
+        } else {
+            assertFalse("stays at " + scale, transform.shouldResetOnRelease());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of decoded bitmaps that can be shared between {@link ZoomageView}
+ * instances, so an image that was recently displayed doesn't need to be decoded again. The cache
+ * is bounded by the total number of bytes used by its bitmaps rather than by a number of entries.
+ *
+ * Bitmaps are never recycled by the cache when they are evicted, as they may still be displayed.
+ * All methods are thread safe.
+ */
+public final class BitmapCache {
+
+    private static BitmapCache sharedInstance;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maxSize;
+    private long size;
+
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize the maximum number of bytes the cached bitmaps may use
+     */
+    public BitmapCache(final long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the process wide cache shared by all {@link ZoomageView} instances. By default
+     * it may use up to an eighth of the maximum heap size.
+     *
+     * @return the shared cache
+     */
+    public static synchronized BitmapCache getInstance() {
+        if (sharedInstance == null) {
+            sharedInstance = new BitmapCache(Runtime.getRuntime().maxMemory() / 8);
+        }
+
+        return sharedInstance;
+    }
+
+    /**
+     * Get the bitmap cached for the given key, marking it as the most recently used.
+     *
+     * @param key the key of the bitmap
+     * @return the cached bitmap, or null if there is none
+     */
+    @Nullable
+    public synchronized Bitmap get(@NonNull final Key key) {
+        final Entry entry = entries.get(key);
+
+        if (entry != null && entry.bitmap.isRecycled()) {
+            //the bitmap was recycled by its owner, so it can no longer be used
+            entries.remove(key);
+            size -= entry.size;
+        } else if (entry != null) {
+            hitCount++;
+            return entry.bitmap;
+        }
+
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Add a bitmap to the cache, evicting the least recently used bitmaps if the cache
+     * grows over its maximum size. Bitmaps larger than the maximum size are not cached.
+     *
+     * @param key    the key of the bitmap
+     * @param bitmap the bitmap to cache
+     */
+    public synchronized void put(@NonNull final Key key, @NonNull final Bitmap bitmap) {
+        final long bitmapSize = bitmap.getByteCount();
+        if (bitmapSize > maxSize || bitmap.isRecycled()) {
+            return;
+        }
+
+        final Entry previous = entries.put(key, new Entry(bitmap, bitmapSize));
+        if (previous != null) {
+            size -= previous.size;
+        }
+
+        size += bitmapSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Remove the bitmap cached for the given key.
+     *
+     * @param key the key of the bitmap
+     */
+    public synchronized void remove(@NonNull final Key key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    /**
+     * Evict the least recently used bitmaps until the cache uses no more than the given number of bytes.
+     *
+     * @param targetSize the maximum number of bytes to keep
+     */
+    public synchronized void trimToSize(final long targetSize) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (size > targetSize && iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            iterator.remove();
+            size -= entry.size;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Evict bitmaps in response to {@link ComponentCallbacks2#onTrimMemory(int)}, emptying the cache once
+     * the app is in the background and halving it while memory runs low in the foreground.
+     *
+     * @param level the trim level
+     */
+    public synchronized void trimMemory(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxSize / 2);
+        }
+    }
+
+    /**
+     * Remove all bitmaps from the cache.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Set the maximum number of bytes the cached bitmaps may use, evicting bitmaps if needed.
+     *
+     * @param maxSize the maximum size in bytes
+     */
+    public synchronized void setMaxSize(final long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return the maximum number of bytes the cached bitmaps may use
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of bytes currently used by the cached bitmaps
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of times {@link #get(Key)} returned a bitmap
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of times {@link #get(Key)} returned null
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of bitmaps that have been evicted to stay within the maximum size
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapCache[size=" + size + ",maxSize=" + maxSize + ",hits=" + hitCount
+                + ",misses=" + missCount + ",evictions=" + evictionCount + "]";
+    }
+
+    private static final class Entry {
+        final Bitmap bitmap;
+        final long size;
+
+        Entry(final Bitmap bitmap, final long size) {
+            this.bitmap = bitmap;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Identifies a decoded bitmap by the image it was decoded from, the sample size and bitmap
+     * config it was decoded with, and optionally the region of the image it covers.
+     */
+    public static final class Key {
+        private final String source;
+        private final int sampleSize;
+        private final Bitmap.Config config;
+        private final int left;
+        private final int top;
+        private final int right;
+        private final int bottom;
+        private final boolean hasRegion;
+
+        /**
+         * Create a key for a whole image.
+         *
+         * @param source     a string uniquely identifying the image, such as its uri
+         * @param sampleSize the sample size the image was decoded with
+         */
+        public Key(@NonNull final String source, final int sampleSize) {
+            this(source, sampleSize, null);
+        }
+
+        /**
+         * Create a key for a region of an image.
+         *
+         * @param source     a string uniquely identifying the image, such as its uri
+         * @param sampleSize the sample size the region was decoded with
+         * @param region     the region of the full resolution image, or null for the whole image
+         */
+        public Key(@NonNull final String source, final int sampleSize, @Nullable final Rect region) {
+            this(source, sampleSize, region, null);
+        }
+
+        /**
+         * Create a key for a region of an image decoded with a preferred bitmap config.
+         *
+         * @param source     a string uniquely identifying the image, such as its uri
+         * @param sampleSize the sample size the region was decoded with
+         * @param region     the region of the full resolution image, or null for the whole image
+         * @param config     the preferred config the image was decoded with, or null if the source chose it
+         */
+        public Key(@NonNull final String source, final int sampleSize, @Nullable final Rect region,
+                   @Nullable final Bitmap.Config config) {
+            this.source = source;
+            this.sampleSize = sampleSize;
+            this.config = config;
+            this.hasRegion = region != null;
+            this.left = hasRegion ? region.left : 0;
+            this.top = hasRegion ? region.top : 0;
+            this.right = hasRegion ? region.right : 0;
+            this.bottom = hasRegion ? region.bottom : 0;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+            return sampleSize == key.sampleSize
+                    && hasRegion == key.hasRegion
+                    && left == key.left
+                    && top == key.top
+                    && right == key.right
+                    && bottom == key.bottom
+                    && config == key.config
+                    && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source.hashCode();
+            result = 31 * result + sampleSize;
+            result = 31 * result + left;
+            result = 31 * result + top;
+            result = 31 * result + right;
+            result = 31 * result + bottom;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
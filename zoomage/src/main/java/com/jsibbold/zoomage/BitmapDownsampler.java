@@ -0,0 +1,130 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Scales a bitmap down in the background for {@link ZoomageView}, producing a drawable that
+ * keeps the intrinsic size of the original so the image is laid out the same. The original
+ * bitmap is left untouched, as it is owned by whoever set it.
+ */
+final class BitmapDownsampler implements Runnable {
+
+    /**
+     * Called on the main thread once the bitmap has been scaled down, or couldn't be.
+     */
+    interface Callback {
+        void onBitmapDownsampled(BitmapDownsampler downsampler, SampledBitmapDrawable drawable);
+
+        void onBitmapDownsampleFailed(BitmapDownsampler downsampler);
+    }
+
+    private static final String TAG = "ZoomageDownsampler";
+
+    private final Resources resources;
+    private final Bitmap bitmap;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int width;
+    private final int height;
+    private final Callback callback;
+
+    private volatile boolean cancelled;
+    private DecodeScheduler.Task task;
+
+    /**
+     * @param bitmap      the bitmap to scale down
+     * @param imageWidth  the intrinsic width the image should keep
+     * @param imageHeight the intrinsic height the image should keep
+     * @param width       the width to scale the bitmap to
+     * @param height      the height to scale the bitmap to
+     */
+    BitmapDownsampler(final Resources resources, final Bitmap bitmap, final int imageWidth, final int imageHeight,
+                      final int width, final int height, final Callback callback) {
+        this.resources = resources;
+        this.bitmap = bitmap;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.width = width;
+        this.height = height;
+        this.callback = callback;
+    }
+
+    /**
+     * @param owner the view the bitmap is scaled down for, which decides how soon it's run
+     */
+    BitmapDownsampler start(@Nullable final DecodeScheduler.Owner owner) {
+        task = DecodeScheduler.submit(owner, this);
+        return this;
+    }
+
+    void cancel() {
+        cancelled = true;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * @return the bitmap being scaled down
+     */
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    @Override
+    public void run() {
+        if (cancelled || bitmap.isRecycled()) {
+            return;
+        }
+
+        final Bitmap scaled;
+        try {
+            scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        } catch (OutOfMemoryError | RuntimeException e) {
+            //there's no room for a second copy, the bitmap was recycled, or its config can't be scaled
+            Log.w(TAG, "Unable to downsample " + bitmap.getWidth() + "x" + bitmap.getHeight() + " bitmap", e);
+            ImageLoader.MAIN_HANDLER.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancelled) {
+                        callback.onBitmapDownsampleFailed(BitmapDownsampler.this);
+                    }
+                }
+            });
+            return;
+        }
+
+        final int sampleSize = Math.max(1, Math.round(bitmap.getWidth() / (float) width));
+        final SampledBitmapDrawable drawable = new SampledBitmapDrawable(resources, scaled, imageWidth, imageHeight, sampleSize);
+
+        ImageLoader.MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    callback.onBitmapDownsampled(BitmapDownsampler.this, drawable);
+                } else if (scaled != bitmap) {
+                    scaled.recycle();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.os.Process;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the background decoding of every {@link ZoomageView}, on a shared pool with a thread per core.
+ * Waiting work is ordered by the state of the view it's for: the most recently touched view first,
+ * then views that are shown, then views that are attached but hidden, and views that are detached last.
+ * Work for a view is reordered whenever its state changes, and can be cancelled until it starts.
+ *
+ * The depth of the queue and how long work waited in it can be read at any time, to tune image
+ * loading in lists and grids of images.
+ */
+public final class DecodeScheduler {
+
+    static final int PRIORITY_DETACHED = 0;
+    static final int PRIORITY_HIDDEN = 1;
+    static final int PRIORITY_VISIBLE = 2;
+    static final int PRIORITY_TOUCHED = 3;
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private static final PriorityBlockingQueue<Runnable> QUEUE = new PriorityBlockingQueue<>();
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor();
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final AtomicLong STARTED_COUNT = new AtomicLong();
+    private static final AtomicLong TOTAL_WAIT_NANOS = new AtomicLong();
+    private static final AtomicLong MAX_WAIT_NANOS = new AtomicLong();
+
+    //only touched on the main thread
+    @Nullable private static Owner touchedOwner;
+
+    private DecodeScheduler() {
+    }
+
+    private static ThreadPoolExecutor newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, QUEUE, newThreadFactory("ZoomageDecoder"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create a factory for daemon threads running at background priority.
+     *
+     * @param name the name of the threads
+     * @return the thread factory
+     */
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * The view that work is being done for, which decides the order work is run in.
+     * Its priority is only changed on the main thread.
+     */
+    static final class Owner {
+        private int priority = PRIORITY_HIDDEN;
+
+        int getPriority() {
+            return this == touchedOwner ? PRIORITY_TOUCHED : priority;
+        }
+    }
+
+    /**
+     * Queue work to run in the background.
+     *
+     * @param owner the view the work is for, or null if it isn't for a particular view
+     * @param work  the work to run
+     * @return the queued task, which can be cancelled until it starts
+     */
+    static Task submit(@Nullable final Owner owner, final Runnable work) {
+        final Task task = new Task(owner, work);
+        EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Set the priority of a view's work, and reorder any of it that's waiting.
+     *
+     * @param owner    the view the work is for
+     * @param priority one of the priority constants
+     */
+    static void setPriority(final Owner owner, final int priority) {
+        //a view that is detached or hidden no longer goes ahead of the others for having been touched last
+        final boolean untouched = owner == touchedOwner && priority <= PRIORITY_HIDDEN;
+        if (untouched) {
+            touchedOwner = null;
+        }
+
+        if (owner.priority != priority || untouched) {
+            owner.priority = priority;
+            reorder(owner);
+        }
+    }
+
+    /**
+     * Put the work of the view that was touched last ahead of all other work.
+     *
+     * @param owner the view that was touched
+     */
+    static void setTouched(final Owner owner) {
+        if (touchedOwner != owner) {
+            final Owner previous = touchedOwner;
+            touchedOwner = owner;
+
+            if (previous != null) {
+                reorder(previous);
+            }
+            reorder(owner);
+        }
+    }
+
+    /**
+     * Requeue a view's waiting work at its current priority.
+     */
+    private static void reorder(final Owner owner) {
+        List<Task> tasks = null;
+
+        for (Iterator<Runnable> iterator = QUEUE.iterator(); iterator.hasNext(); ) {
+            final Task task = (Task) iterator.next();
+            if (task.owner == owner && task.priority != owner.getPriority()) {
+                if (tasks == null) {
+                    tasks = new ArrayList<>();
+                }
+                tasks.add(task);
+            }
+        }
+
+        if (tasks != null) {
+            for (Task task : tasks) {
+                //tasks that started in the meantime can't be moved
+                if (QUEUE.remove(task)) {
+                    task.priority = owner.getPriority();
+                    EXECUTOR.execute(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting to run
+     */
+    public static int getQueueDepth() {
+        return QUEUE.size();
+    }
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public static int getActiveCount() {
+        return EXECUTOR.getActiveCount();
+    }
+
+    /**
+     * @return the largest number of tasks that run at the same time
+     */
+    public static int getMaxConcurrency() {
+        return THREAD_COUNT;
+    }
+
+    /**
+     * @return the number of tasks that have started since the statistics were last reset
+     */
+    public static long getStartedCount() {
+        return STARTED_COUNT.get();
+    }
+
+    /**
+     * @return the average time tasks waited before starting, in milliseconds, since the statistics were last reset
+     */
+    public static float getAverageWaitMillis() {
+        final long count = STARTED_COUNT.get();
+        return count > 0 ? TOTAL_WAIT_NANOS.get() / (float) count / 1000000f : 0;
+    }
+
+    /**
+     * @return the longest time a task waited before starting, in milliseconds, since the statistics were last reset
+     */
+    public static float getMaxWaitMillis() {
+        return MAX_WAIT_NANOS.get() / 1000000f;
+    }
+
+    /**
+     * Reset the started count and wait times.
+     */
+    public static void resetStats() {
+        STARTED_COUNT.set(0);
+        TOTAL_WAIT_NANOS.set(0);
+        MAX_WAIT_NANOS.set(0);
+    }
+
+    private static void recordWait(final long waitNanos) {
+        STARTED_COUNT.incrementAndGet();
+        TOTAL_WAIT_NANOS.addAndGet(waitNanos);
+
+        long max = MAX_WAIT_NANOS.get();
+        while (waitNanos > max && !MAX_WAIT_NANOS.compareAndSet(max, waitNanos)) {
+            max = MAX_WAIT_NANOS.get();
+        }
+    }
+
+    /**
+     * Work queued with {@link #submit(Owner, Runnable)}, ordered by priority and then by the order it was queued in.
+     */
+    static final class Task implements Runnable, Comparable<Task> {
+        @Nullable private final Owner owner;
+        private final Runnable work;
+        private final long sequence = SEQUENCE.getAndIncrement();
+        private final long queuedNanos = System.nanoTime();
+        private volatile int priority;
+
+        private Task(@Nullable final Owner owner, final Runnable work) {
+            this.owner = owner;
+            this.work = work;
+            this.priority = owner != null ? owner.getPriority() : PRIORITY_HIDDEN;
+        }
+
+        /**
+         * Stop the task from running, if it hasn't started yet.
+         *
+         * @return true if the task was waiting and will now never run, false if it has already started
+         */
+        boolean cancel() {
+            return QUEUE.remove(this);
+        }
+
+        @Override
+        public void run() {
+            recordWait(System.nanoTime() - queuedNanos);
+            work.run();
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
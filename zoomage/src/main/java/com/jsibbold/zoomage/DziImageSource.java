@@ -0,0 +1,260 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.Xml;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link ImageSource} for an image pre-tiled into a Deep Zoom (DZI) pyramid, stored in local files or assets.
+ * Each level of the pyramid halves the resolution of the one above it, so regions are read from the level
+ * matching the zoom level, and only its tiles that overlap the region are decoded. The full resolution image
+ * is never decoded as a whole.
+ *
+ * A pyramid is made of a descriptor, such as {@code map.dzi}, and a directory of tiles next to it, such as
+ * {@code map_files}, holding a directory per level with tiles named {@code column_row.format}.
+ */
+public final class DziImageSource implements ImageSource {
+
+    private final String descriptorPath;
+    private final String tilesPath;
+    private final PathOpener opener;
+    private final String cacheKey;
+
+    private int width;
+    private int height;
+    private int tileSize;
+    private int overlap;
+    private String format;
+    private int maxLevel;
+
+    private volatile boolean recycled;
+
+    private DziImageSource(final String descriptorPath, final PathOpener opener, final String cacheKey) {
+        final int extension = descriptorPath.lastIndexOf('.');
+        this.descriptorPath = descriptorPath;
+        this.tilesPath = (extension > descriptorPath.lastIndexOf('/') ? descriptorPath.substring(0, extension) : descriptorPath) + "_files/";
+        this.opener = opener;
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * Create a source for a pyramid stored in local files.
+     *
+     * @param descriptor the .dzi descriptor of the pyramid, next to its directory of tiles
+     * @return the image source
+     */
+    @NonNull
+    public static DziImageSource fromFile(@NonNull final File descriptor) {
+        return new DziImageSource(descriptor.getAbsolutePath(), new PathOpener() {
+            @Override
+            public InputStream open(final String path) throws IOException {
+                return new FileInputStream(path);
+            }
+        }, "dzi:file:" + descriptor.getAbsolutePath());
+    }
+
+    /**
+     * Create a source for a pyramid stored in the app's assets.
+     *
+     * @param assets the asset manager to read the pyramid with
+     * @param path   the path of the .dzi descriptor of the pyramid, next to its directory of tiles
+     * @return the image source
+     */
+    @NonNull
+    public static DziImageSource fromAsset(@NonNull final AssetManager assets, @NonNull final String path) {
+        return new DziImageSource(path, new PathOpener() {
+            @Override
+            public InputStream open(final String path) throws IOException {
+                return assets.open(path);
+            }
+        }, "dzi:asset:" + path);
+    }
+
+    @Override
+    public void open() throws IOException {
+        final InputStream stream = opener.open(descriptorPath);
+        try {
+            readDescriptor(stream);
+        } catch (XmlPullParserException | NumberFormatException e) {
+            throw new IOException("Invalid Deep Zoom descriptor " + descriptorPath, e);
+        } finally {
+            stream.close();
+        }
+
+        if (width <= 0 || height <= 0 || tileSize <= 0 || format == null) {
+            throw new IOException("Incomplete Deep Zoom descriptor " + descriptorPath);
+        }
+
+        //the top level is the full resolution image, and each level below halves it down to a single pixel
+        maxLevel = 0;
+        while ((1L << maxLevel) < Math.max(width, height)) {
+            maxLevel++;
+        }
+    }
+
+    private void readDescriptor(final InputStream stream) throws XmlPullParserException, IOException {
+        final XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(stream, null);
+
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event != XmlPullParser.START_TAG) {
+                continue;
+            }
+
+            if ("Image".equals(parser.getName())) {
+                tileSize = Integer.parseInt(parser.getAttributeValue(null, "TileSize"));
+                overlap = Integer.parseInt(parser.getAttributeValue(null, "Overlap"));
+                format = parser.getAttributeValue(null, "Format");
+            } else if ("Size".equals(parser.getName())) {
+                width = Integer.parseInt(parser.getAttributeValue(null, "Width"));
+                height = Integer.parseInt(parser.getAttributeValue(null, "Height"));
+            }
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decodeRegion(@NonNull final Rect region, final int sampleSize) throws IOException {
+        //sample sizes past the bottom of the pyramid use its single pixel level
+        final int level = Math.max(0, maxLevel - Integer.numberOfTrailingZeros(sampleSize));
+        final int levelScale = 1 << (maxLevel - level);
+        final int levelWidth = (width + levelScale - 1) / levelScale;
+        final int levelHeight = (height + levelScale - 1) / levelScale;
+
+        //the region in the pixels of the level
+        final int left = Math.min(region.left / levelScale, levelWidth - 1);
+        final int top = Math.min(region.top / levelScale, levelHeight - 1);
+        final int right = Math.max(left + 1, Math.min(levelWidth, (region.right + levelScale - 1) / levelScale));
+        final int bottom = Math.max(top + 1, Math.min(levelHeight, (region.bottom + levelScale - 1) / levelScale));
+
+        final int firstColumn = left / tileSize;
+        final int lastColumn = (right - 1) / tileSize;
+        final int firstRow = top / tileSize;
+        final int lastRow = (bottom - 1) / tileSize;
+
+        //a region aligned to the tiles of the level, as requested by TiledImageDrawable, is a single tile
+        if (firstColumn == lastColumn && firstRow == lastRow) {
+            final Bitmap tile = decodeTile(level, firstColumn, firstRow);
+            if (tile == null) {
+                return null;
+            }
+
+            final int x = left - getTileOrigin(firstColumn);
+            final int y = top - getTileOrigin(firstRow);
+            final int regionWidth = Math.min(right - left, tile.getWidth() - x);
+            final int regionHeight = Math.min(bottom - top, tile.getHeight() - y);
+            if (x == 0 && y == 0 && regionWidth == tile.getWidth() && regionHeight == tile.getHeight()) {
+                return tile;
+            }
+
+            final Bitmap cropped = Bitmap.createBitmap(tile, x, y, regionWidth, regionHeight);
+            if (cropped != tile) {
+                tile.recycle();
+            }
+            return cropped;
+        }
+
+        final Bitmap bitmap = Bitmap.createBitmap(right - left, bottom - top, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final Bitmap tile = decodeTile(level, column, row);
+                if (tile == null) {
+                    bitmap.recycle();
+                    return null;
+                }
+
+                //overlapping edges are drawn over by the neighboring tile with the same pixels
+                canvas.drawBitmap(tile, getTileOrigin(column) - left, getTileOrigin(row) - top, null);
+                tile.recycle();
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Get where a tile's bitmap starts within its level, which is before the tile itself by the overlap
+     * on every edge but the first.
+     */
+    private int getTileOrigin(final int index) {
+        return index * tileSize - (index > 0 ? overlap : 0);
+    }
+
+    @Nullable
+    private Bitmap decodeTile(final int level, final int column, final int row) throws IOException {
+        if (recycled) {
+            return null;
+        }
+
+        final InputStream stream = opener.open(tilesPath + level + '/' + column + '_' + row + '.' + format);
+        try {
+            return BitmapFactory.decodeStream(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public void recycle() {
+        recycled = true;
+    }
+
+    @NonNull
+    @Override
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * Opens a file of the pyramid by its path.
+     */
+    private interface PathOpener {
+        InputStream open(String path) throws IOException;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+/**
+ * Performance measurements of a single gesture on a {@link ZoomageView}, from the first
+ * touch until the image settles after any reset, center or fling animation that follows it.
+ *
+ * The same instance is reused for every gesture, so values should be read or copied during
+ * {@link OnGestureMetricsListener#onGestureMetrics(GestureMetrics)} rather than stored.
+ */
+public final class GestureMetrics {
+
+    //frames taking this many times longer than expected are considered janky
+    private static final float JANK_THRESHOLD = 1.5f;
+
+    private int eventCount;
+    private long touchTimeNanos;
+    private long scaleTimeNanos;
+    private long gestureDurationNanos;
+    private long animationDurationNanos;
+
+    private long frameIntervalNanos;
+    private long lastFrameTimeNanos;
+    private int frameCount;
+    private int jankyFrameCount;
+    private int droppedFrameCount;
+
+    private int decodedWidth;
+    private int decodedHeight;
+    private float displayedWidth;
+    private float displayedHeight;
+
+    GestureMetrics() {
+    }
+
+    void reset(final long frameIntervalNanos) {
+        this.frameIntervalNanos = frameIntervalNanos;
+        eventCount = 0;
+        touchTimeNanos = 0;
+        scaleTimeNanos = 0;
+        gestureDurationNanos = 0;
+        animationDurationNanos = 0;
+        lastFrameTimeNanos = 0;
+        frameCount = 0;
+        jankyFrameCount = 0;
+        droppedFrameCount = 0;
+        decodedWidth = 0;
+        decodedHeight = 0;
+        displayedWidth = 0;
+        displayedHeight = 0;
+    }
+
+    void addTouchEvent(final long durationNanos) {
+        eventCount++;
+        touchTimeNanos += durationNanos;
+    }
+
+    void addScaleTime(final long durationNanos) {
+        scaleTimeNanos += durationNanos;
+    }
+
+    void setDurations(final long gestureDurationNanos, final long animationDurationNanos) {
+        this.gestureDurationNanos = gestureDurationNanos;
+        this.animationDurationNanos = animationDurationNanos;
+    }
+
+    void setImageSizes(final int decodedWidth, final int decodedHeight, final float displayedWidth, final float displayedHeight) {
+        this.decodedWidth = decodedWidth;
+        this.decodedHeight = decodedHeight;
+        this.displayedWidth = displayedWidth;
+        this.displayedHeight = displayedHeight;
+    }
+
+    /**
+     * Record the start of a frame, counting it as janky if it started noticeably later than
+     * expected, and counting the frames that were skipped in between as dropped.
+     *
+     * @param frameTimeNanos the frame time given by the choreographer
+     */
+    void onFrame(final long frameTimeNanos) {
+        if (lastFrameTimeNanos > 0 && frameIntervalNanos > 0) {
+            final long interval = frameTimeNanos - lastFrameTimeNanos;
+            if (interval > frameIntervalNanos * JANK_THRESHOLD) {
+                jankyFrameCount++;
+                droppedFrameCount += Math.round(interval / (float) frameIntervalNanos) - 1;
+            }
+        }
+
+        frameCount++;
+        lastFrameTimeNanos = frameTimeNanos;
+    }
+
+    /**
+     * @return the number of touch events received during the gesture
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the total main thread time spent handling touch events, including scaling, in nanoseconds
+     */
+    public long getTouchTimeNanos() {
+        return touchTimeNanos;
+    }
+
+    /**
+     * @return the main thread time spent handling scale changes, in nanoseconds
+     */
+    public long getScaleTimeNanos() {
+        return scaleTimeNanos;
+    }
+
+    /**
+     * @return the time from the first touch until the last finger was lifted, in nanoseconds
+     */
+    public long getGestureDurationNanos() {
+        return gestureDurationNanos;
+    }
+
+    /**
+     * @return the time the reset, center or fling animation took after the gesture ended, in nanoseconds
+     */
+    public long getAnimationDurationNanos() {
+        return animationDurationNanos;
+    }
+
+    /**
+     * @return the number of frames drawn during the gesture and its animations
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the number of frames that started noticeably later than the display refresh rate allows
+     */
+    public int getJankyFrameCount() {
+        return jankyFrameCount;
+    }
+
+    /**
+     * @return the number of frames that were skipped entirely
+     */
+    public int getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * @return the width in pixels of the decoded image data
+     */
+    public int getDecodedWidth() {
+        return decodedWidth;
+    }
+
+    /**
+     * @return the height in pixels of the decoded image data
+     */
+    public int getDecodedHeight() {
+        return decodedHeight;
+    }
+
+    /**
+     * @return the width the image was displayed at once it settled, in pixels
+     */
+    public float getDisplayedWidth() {
+        return displayedWidth;
+    }
+
+    /**
+     * @return the height the image was displayed at once it settled, in pixels
+     */
+    public float getDisplayedHeight() {
+        return displayedHeight;
+    }
+}
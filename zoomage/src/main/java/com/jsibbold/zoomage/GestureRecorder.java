@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.view.MotionEvent;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the touch events a {@link ZoomageView} receives into a compact binary trace,
+ * so a gesture that performs badly can be reproduced later with {@link GestureTrace}.
+ * Set it with {@link ZoomageView#setGestureRecorder(GestureRecorder)}.
+ *
+ * Recording appends to a growing buffer, so it should only be enabled while investigating a problem.
+ */
+public final class GestureRecorder {
+
+    private final ByteArrayOutputStream events = new ByteArrayOutputStream();
+    private int eventCount;
+    private int pointerIdCount;
+    private int sampleCount;
+    private int coordinateCount;
+    private long lastEventTime;
+    private int viewWidth;
+    private int viewHeight;
+
+    /**
+     * Append a touch event, including its historical samples, to the trace.
+     *
+     * @param event      the touch event
+     * @param viewWidth  the width of the view receiving it
+     * @param viewHeight the height of the view receiving it
+     */
+    void record(@NonNull final MotionEvent event, final int viewWidth, final int viewHeight) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+
+        if (eventCount == 0) {
+            lastEventTime = event.getHistorySize() > 0 ? event.getHistoricalEventTime(0) : event.getEventTime();
+        }
+
+        final int pointerCount = Math.min(event.getPointerCount(), 255);
+        final int historySize = event.getHistorySize();
+
+        events.write(event.getActionMasked());
+        events.write(event.getActionIndex());
+        events.write(pointerCount);
+        GestureTrace.writeVarInt(events, historySize);
+
+        for (int p = 0; p < pointerCount; p++) {
+            events.write(event.getPointerId(p));
+        }
+
+        for (int h = 0; h < historySize; h++) {
+            writeTime(event.getHistoricalEventTime(h));
+
+            for (int p = 0; p < pointerCount; p++) {
+                writeFloat(event.getHistoricalX(p, h));
+                writeFloat(event.getHistoricalY(p, h));
+            }
+        }
+
+        writeTime(event.getEventTime());
+
+        for (int p = 0; p < pointerCount; p++) {
+            writeFloat(event.getX(p));
+            writeFloat(event.getY(p));
+        }
+
+        eventCount++;
+        pointerIdCount += pointerCount;
+        sampleCount += historySize + 1;
+        coordinateCount += pointerCount * (historySize + 1);
+    }
+
+    private void writeTime(final long time) {
+        GestureTrace.writeVarInt(events, (int) Math.max(0, time - lastEventTime));
+        lastEventTime = time;
+    }
+
+    private void writeFloat(final float value) {
+        final int bits = Float.floatToIntBits(value);
+        events.write(bits >>> 24);
+        events.write(bits >>> 16);
+        events.write(bits >>> 8);
+        events.write(bits);
+    }
+
+    /**
+     * @return the number of touch events recorded
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Discard everything recorded so far.
+     */
+    public void clear() {
+        events.reset();
+        eventCount = 0;
+        pointerIdCount = 0;
+        sampleCount = 0;
+        coordinateCount = 0;
+    }
+
+    /**
+     * Write the trace recorded so far, in the format read by {@link GestureTrace#read(java.io.InputStream)}.
+     *
+     * @param out the stream to write to, which is not closed
+     * @throws IOException if the stream can't be written to
+     */
+    public void writeTo(@NonNull final OutputStream out) throws IOException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(GestureTrace.MAGIC >>> 24);
+        header.write(GestureTrace.MAGIC >>> 16);
+        header.write(GestureTrace.MAGIC >>> 8);
+        header.write(GestureTrace.MAGIC);
+        header.write(GestureTrace.VERSION);
+        GestureTrace.writeVarInt(header, viewWidth);
+        GestureTrace.writeVarInt(header, viewHeight);
+        GestureTrace.writeVarInt(header, eventCount);
+        GestureTrace.writeVarInt(header, pointerIdCount);
+        GestureTrace.writeVarInt(header, sampleCount);
+        GestureTrace.writeVarInt(header, coordinateCount);
+
+        header.writeTo(out);
+        events.writeTo(out);
+    }
+
+    /**
+     * @return the trace recorded so far
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(events.size() + 16);
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            //writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+
+        return out.toByteArray();
+    }
+}
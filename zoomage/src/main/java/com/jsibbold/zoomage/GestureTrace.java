@@ -0,0 +1,288 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream of touch events recorded by a {@link GestureRecorder}, which can be replayed
+ * through a view to reproduce a gesture exactly, including the batched historical samples
+ * of each move event.
+ *
+ * A trace is stored as a compact binary stream: a header with a magic number, the format
+ * version, the size of the view and the number of events, pointer ids, samples and coordinates
+ * it holds, followed by every event as its action, action index,
+ * pointer ids and history size, and every sample of it as a variable length time delta in
+ * milliseconds followed by the coordinates of each pointer.
+ */
+public final class GestureTrace {
+
+    static final int MAGIC = 0x5A475452;
+    static final int VERSION = 2;
+
+    private final int viewWidth;
+    private final int viewHeight;
+
+    private final int eventCount;
+    private final int[] actions;
+    private final int[] actionIndexes;
+    private final int[] pointerCounts;
+    private final int[] sampleCounts;
+
+    //the first pointer, sample and coordinate of each event in the arrays below
+    private final int[] pointerOffsets;
+    private final int[] sampleOffsets;
+    private final int[] coordinateOffsets;
+
+    private final int[] pointerIds;
+    private final long[] sampleTimes;
+    private final float[] sampleXs;
+    private final float[] sampleYs;
+
+    private GestureTrace(final int viewWidth, final int viewHeight, final int eventCount, final int[] actions,
+                         final int[] actionIndexes, final int[] pointerCounts, final int[] sampleCounts,
+                         final int[] pointerOffsets, final int[] sampleOffsets, final int[] coordinateOffsets,
+                         final int[] pointerIds, final long[] sampleTimes, final float[] sampleXs,
+                         final float[] sampleYs) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.eventCount = eventCount;
+        this.actions = actions;
+        this.actionIndexes = actionIndexes;
+        this.pointerCounts = pointerCounts;
+        this.sampleCounts = sampleCounts;
+        this.pointerOffsets = pointerOffsets;
+        this.sampleOffsets = sampleOffsets;
+        this.coordinateOffsets = coordinateOffsets;
+        this.pointerIds = pointerIds;
+        this.sampleTimes = sampleTimes;
+        this.sampleXs = sampleXs;
+        this.sampleYs = sampleYs;
+    }
+
+    /**
+     * Read a trace written by {@link GestureRecorder#writeTo(java.io.OutputStream)}.
+     *
+     * @param in the stream to read from, which is not closed
+     * @return the trace
+     * @throws IOException if the stream can't be read or isn't a gesture trace
+     */
+    @NonNull
+    public static GestureTrace read(@NonNull final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a gesture trace");
+        }
+
+        final int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported gesture trace version " + version);
+        }
+
+        final int viewWidth = readVarInt(data);
+        final int viewHeight = readVarInt(data);
+        final int eventCount = readVarInt(data);
+        final int pointerIdCount = readVarInt(data);
+        final int sampleCount = readVarInt(data);
+        final int coordinateCount = readVarInt(data);
+
+        final int[] actions = new int[eventCount];
+        final int[] actionIndexes = new int[eventCount];
+        final int[] pointerCounts = new int[eventCount];
+        final int[] sampleCounts = new int[eventCount];
+        final int[] pointerOffsets = new int[eventCount];
+        final int[] sampleOffsets = new int[eventCount];
+        final int[] coordinateOffsets = new int[eventCount];
+
+        final int[] pointerIds = new int[pointerIdCount];
+        final long[] sampleTimes = new long[sampleCount];
+        final float[] sampleXs = new float[coordinateCount];
+        final float[] sampleYs = new float[coordinateCount];
+
+        int pointerIdIndex = 0;
+        int sampleIndex = 0;
+        int coordinateIndex = 0;
+        long time = 0;
+        for (int i = 0; i < eventCount; i++) {
+            actions[i] = data.readUnsignedByte();
+            actionIndexes[i] = data.readUnsignedByte();
+            pointerCounts[i] = data.readUnsignedByte();
+            sampleCounts[i] = readVarInt(data) + 1;
+            pointerOffsets[i] = pointerIdIndex;
+            sampleOffsets[i] = sampleIndex;
+            coordinateOffsets[i] = coordinateIndex;
+
+            if (pointerIdIndex + pointerCounts[i] > pointerIdCount || sampleIndex + sampleCounts[i] > sampleCount
+                    || coordinateIndex + pointerCounts[i] * sampleCounts[i] > coordinateCount) {
+                throw new IOException("Gesture trace holds more samples than its header");
+            }
+
+            for (int p = 0; p < pointerCounts[i]; p++) {
+                pointerIds[pointerIdIndex++] = data.readUnsignedByte();
+            }
+
+            for (int s = 0; s < sampleCounts[i]; s++) {
+                time += readVarInt(data);
+                sampleTimes[sampleIndex++] = time;
+
+                for (int p = 0; p < pointerCounts[i]; p++) {
+                    sampleXs[coordinateIndex] = data.readFloat();
+                    sampleYs[coordinateIndex++] = data.readFloat();
+                }
+            }
+        }
+
+        return new GestureTrace(viewWidth, viewHeight, eventCount, actions, actionIndexes, pointerCounts,
+                sampleCounts, pointerOffsets, sampleOffsets, coordinateOffsets, pointerIds, sampleTimes,
+                sampleXs, sampleYs);
+    }
+
+    /**
+     * @return the width of the view the trace was recorded on
+     */
+    public int getViewWidth() {
+        return viewWidth;
+    }
+
+    /**
+     * @return the height of the view the trace was recorded on
+     */
+    public int getViewHeight() {
+        return viewHeight;
+    }
+
+    /**
+     * @return the number of touch events in the trace
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the time from the first to the last event of the trace, in milliseconds
+     */
+    public long getDuration() {
+        return sampleTimes.length > 0 ? sampleTimes[sampleTimes.length - 1] : 0;
+    }
+
+    /**
+     * Create a touch event as it was recorded, with its times offset from the given start time.
+     * The caller is responsible for recycling it.
+     *
+     * @param index     the index of the event in the trace
+     * @param startTime the uptime in milliseconds the trace should start at
+     * @return the touch event
+     */
+    @NonNull
+    public MotionEvent obtainEvent(final int index, final long startTime) {
+        final int pointerCount = pointerCounts[index];
+        final int sampleOffset = sampleOffsets[index];
+        final int coordinateOffset = coordinateOffsets[index];
+        final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+        final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+
+        for (int p = 0; p < pointerCount; p++) {
+            properties[p] = new MotionEvent.PointerProperties();
+            properties[p].id = pointerIds[pointerOffsets[index] + p];
+            properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[p] = new MotionEvent.PointerCoords();
+            coords[p].pressure = 1f;
+            coords[p].size = 1f;
+        }
+
+        setCoordinates(coords, coordinateOffset);
+        final int action = actions[index] | (actionIndexes[index] << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        final MotionEvent event = MotionEvent.obtain(startTime + getDownTime(index), startTime + sampleTimes[sampleOffset], action,
+                pointerCount, properties, coords, 0, 0, 1f, 1f, 0, 0, 0, 0);
+
+        //the remaining samples are added as a batch, leaving the last one as the current position
+        for (int s = 1; s < sampleCounts[index]; s++) {
+            setCoordinates(coords, coordinateOffset + s * pointerCount);
+            event.addBatch(startTime + sampleTimes[sampleOffset + s], coords, 0);
+        }
+
+        return event;
+    }
+
+    /**
+     * Get the time of the down event that started the gesture an event belongs to.
+     */
+    private long getDownTime(final int index) {
+        for (int i = index; i >= 0; i--) {
+            if (actions[i] == MotionEvent.ACTION_DOWN) {
+                return sampleTimes[sampleOffsets[i]];
+            }
+        }
+
+        return 0;
+    }
+
+    private void setCoordinates(final MotionEvent.PointerCoords[] coords, final int first) {
+        for (int p = 0; p < coords.length; p++) {
+            coords[p].x = sampleXs[first + p];
+            coords[p].y = sampleYs[first + p];
+        }
+    }
+
+    /**
+     * Dispatch every event of the trace to a view, one after another without waiting between
+     * them, with times starting at the current uptime.
+     *
+     * @param view the view to replay the trace through
+     */
+    public void replay(@NonNull final View view) {
+        final long startTime = SystemClock.uptimeMillis();
+
+        for (int i = 0; i < eventCount; i++) {
+            final MotionEvent event = obtainEvent(i, startTime);
+            view.dispatchTouchEvent(event);
+            event.recycle();
+        }
+    }
+
+    static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+
+        return value;
+    }
+
+    static void writeVarInt(final ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+}
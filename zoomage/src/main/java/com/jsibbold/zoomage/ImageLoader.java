@@ -0,0 +1,263 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.ImageView.ScaleType;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images off the main thread for {@link ZoomageView}, at a sample size chosen so the
+ * image stays sharp up to the view's maximum scale without decoding more pixels than that needs.
+ */
+final class ImageLoader {
+
+    private static final String TAG = "ZoomageImageLoader";
+
+    static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private ImageLoader() {
+    }
+
+    /**
+     * Get the scale an {@link android.widget.ImageView} will initially display an image at
+     * for the given scale type.
+     *
+     * @param scaleType   the scale type of the view
+     * @param imageWidth  width of the image
+     * @param imageHeight height of the image
+     * @param viewWidth   width of the view
+     * @param viewHeight  height of the view
+     * @return the number of displayed pixels per image pixel
+     */
+    static float calculateStartScale(final ScaleType scaleType, final int imageWidth, final int imageHeight,
+                                     final int viewWidth, final int viewHeight) {
+        final float widthScale = viewWidth / (float) imageWidth;
+        final float heightScale = viewHeight / (float) imageHeight;
+
+        switch (scaleType) {
+            case MATRIX:
+            case CENTER:
+                return 1f;
+            case CENTER_INSIDE:
+                return Math.min(1f, Math.min(widthScale, heightScale));
+            case CENTER_CROP:
+            case FIT_XY:
+                return Math.max(widthScale, heightScale);
+            default:
+                return Math.min(widthScale, heightScale);
+        }
+    }
+
+    /**
+     * Called on the main thread once a request has finished decoding.
+     */
+    interface Callback {
+        void onImageLoaded(Request request, SampledBitmapDrawable drawable);
+    }
+
+    /**
+     * A request to decode an image in the background. Requests can be cancelled, and a
+     * cancelled request never calls back, but can be restarted with {@link #restart()}.
+     */
+    static final class Request implements Runnable {
+
+        private final String source;
+        private final StreamOpener opener;
+        private final Resources resources;
+        private final int viewWidth;
+        private final int viewHeight;
+        private final ScaleType scaleType;
+        private final float targetZoom;
+        private final int fixedSampleSize;
+        private final Bitmap.Config config;
+        @Nullable private final BitmapCache cache;
+        private final Callback callback;
+
+        private final BitmapFactory.Options options = new BitmapFactory.Options();
+        private volatile boolean cancelled;
+        @Nullable private DecodeScheduler.Owner owner;
+        private DecodeScheduler.Task task;
+
+        /**
+         * @param targetZoom the zoom level, relative to the image's start scale, that the decoded
+         *                   image should stay sharp at
+         */
+        Request(final String source, final StreamOpener opener, final Resources resources,
+                final int viewWidth, final int viewHeight, final ScaleType scaleType, final float targetZoom,
+                final Bitmap.Config config, @Nullable final BitmapCache cache, final Callback callback) {
+            this(source, opener, resources, viewWidth, viewHeight, scaleType, targetZoom, 0, config, cache, callback);
+        }
+
+        private Request(final String source, final StreamOpener opener, final Resources resources,
+                        final int viewWidth, final int viewHeight, final ScaleType scaleType, final float targetZoom,
+                        final int fixedSampleSize, final Bitmap.Config config, @Nullable final BitmapCache cache,
+                        final Callback callback) {
+            this.source = source;
+            this.opener = opener;
+            this.resources = resources;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.scaleType = scaleType;
+            this.targetZoom = targetZoom;
+            this.fixedSampleSize = fixedSampleSize;
+            this.config = config;
+            this.cache = cache;
+            this.callback = callback;
+        }
+
+        /**
+         * Queue the request on the {@link DecodeScheduler}.
+         *
+         * @param owner the view the image is decoded for, which decides how soon it's decoded
+         * @return this request
+         */
+        Request start(@Nullable final DecodeScheduler.Owner owner) {
+            this.owner = owner;
+            task = DecodeScheduler.submit(owner, this);
+            return this;
+        }
+
+        /**
+         * @return a new, started request with the same parameters as this one
+         */
+        Request restart() {
+            cancel();
+            return new Request(source, opener, resources, viewWidth, viewHeight, scaleType, targetZoom,
+                    fixedSampleSize, config, cache, callback).start(owner);
+        }
+
+        /**
+         * Create a request that decodes the same image at the given sample size.
+         *
+         * @param sampleSize the sample size to decode with
+         * @param callback   called once the image is decoded
+         * @return a new request, which still needs to be started
+         */
+        Request withSampleSize(final int sampleSize, final Callback callback) {
+            return new Request(source, opener, resources, viewWidth, viewHeight, scaleType, targetZoom,
+                    sampleSize, config, cache, callback);
+        }
+
+        /**
+         * @return the sample size this request decodes with, or 0 if it is calculated from the view size
+         */
+        int getSampleSize() {
+            return fixedSampleSize;
+        }
+
+        /**
+         * @return true if the decoded bitmap is kept in a {@link BitmapCache}, and so shouldn't be recycled
+         */
+        boolean usesCache() {
+            return cache != null;
+        }
+
+        @SuppressWarnings("deprecation")
+        void cancel() {
+            cancelled = true;
+
+            //does nothing from Android 7.0, but still stops a decode in progress on the older
+            //versions this library supports, where decoding a large image can take a while
+            options.requestCancelDecode();
+            if (task != null) {
+                task.cancel();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final SampledBitmapDrawable drawable = decode();
+                if (drawable == null || cancelled) {
+                    return;
+                }
+
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancelled) {
+                            callback.onImageLoaded(Request.this, drawable);
+                        }
+                    }
+                });
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                //a missing resource, a denied content uri or an image too large to decode fails
+                //this image alone, rather than crashing the app from a decode thread
+                Log.w(TAG, "Unable to load " + source, e);
+            }
+        }
+
+        @Nullable
+        private SampledBitmapDrawable decode() throws IOException {
+            options.inJustDecodeBounds = true;
+            decodeStream();
+            options.inJustDecodeBounds = false;
+
+            final int imageWidth = options.outWidth;
+            final int imageHeight = options.outHeight;
+            if (imageWidth <= 0 || imageHeight <= 0 || cancelled) {
+                return null;
+            }
+
+            //the image must be sharp when zoomed to the target zoom, but doesn't need any more detail than that
+            final float startScale = calculateStartScale(scaleType, imageWidth, imageHeight, viewWidth, viewHeight);
+            final int sampleSize = fixedSampleSize > 0 ? fixedSampleSize
+                    : TiledImageDrawable.calculateSampleSize(startScale * targetZoom);
+
+            final BitmapCache.Key key = cache != null ? new BitmapCache.Key(source, sampleSize, null, config) : null;
+            Bitmap bitmap = key != null ? cache.get(key) : null;
+
+            if (bitmap == null) {
+                options.inSampleSize = sampleSize;
+                options.inPreferredConfig = config;
+                bitmap = decodeStream();
+
+                if (bitmap == null) {
+                    return null;
+                }
+
+                if (key != null) {
+                    cache.put(key, bitmap);
+                }
+            }
+
+            return new SampledBitmapDrawable(resources, bitmap, imageWidth, imageHeight, sampleSize);
+        }
+
+        private Bitmap decodeStream() throws IOException {
+            final InputStream stream = opener.open();
+            try {
+                return BitmapFactory.decodeStream(stream, null, options);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
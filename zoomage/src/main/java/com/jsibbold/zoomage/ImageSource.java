@@ -0,0 +1,80 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A very large image that can be decoded a region at a time, displayed by a {@link ZoomageView}
+ * with tiled rendering through {@link ZoomageView#setImageSource(ImageSource)}. Only the regions
+ * that are visible are decoded, at the resolution matching the current zoom level.
+ *
+ * Every method but {@link #getCacheKey()} is called on a background thread, and regions may be
+ * decoded by more than one thread at a time.
+ */
+public interface ImageSource {
+
+    /**
+     * Open the image, reading whatever is needed to know its size. Called once, before any other method.
+     *
+     * @throws IOException if the image can't be read
+     */
+    void open() throws IOException;
+
+    /**
+     * @return the full resolution width of the image
+     */
+    int getWidth();
+
+    /**
+     * @return the full resolution height of the image
+     */
+    int getHeight();
+
+    /**
+     * @return the size, in decoded pixels, of the tiles the image is decoded in
+     */
+    int getTileSize();
+
+    /**
+     * Decode a region of the image.
+     *
+     * @param region     the region to decode, in full resolution image coordinates
+     * @param sampleSize the power of two to divide the resolution by
+     * @return the decoded region, or null if it couldn't be decoded
+     * @throws IOException if the image can't be read
+     */
+    @Nullable
+    Bitmap decodeRegion(@NonNull Rect region, int sampleSize) throws IOException;
+
+    /**
+     * Release everything the image holds. No region is decoded afterwards.
+     */
+    void recycle();
+
+    /**
+     * @return a string uniquely identifying the image, used to keep its tiles in a {@link BitmapCache},
+     * or null to never cache them
+     */
+    @Nullable
+    String getCacheKey();
+}
@@ -0,0 +1,561 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Canvas;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Markers such as pins, annotations or hotspots placed on a {@link ZoomageView}'s image, in
+ * the image's own coordinates, and drawn on top of it with {@link ZoomageView#setMarkerOverlay(MarkerOverlay)}.
+ *
+ * Markers are kept in a grid index that's built once after they change, so each frame only visits the
+ * cells in view, and a tap only visits the cells around it, however many markers there are. The grid is
+ * merged into coarser levels so that, once a cluster size is set, markers that would crowd each other
+ * at the current zoom are drawn as a single cluster instead. Markers are drawn by a {@link Renderer},
+ * at their position in the view, so they keep their size as the image is zoomed.
+ */
+public final class MarkerOverlay {
+
+    /**
+     * Draws markers and clusters of markers.
+     */
+    public interface Renderer {
+
+        /**
+         * Draw a single marker.
+         *
+         * @param canvas the canvas to draw on, in the coordinates of the view
+         * @param marker the index of the marker
+         * @param x      the x location of the marker in the view
+         * @param y      the y location of the marker in the view
+         */
+        void drawMarker(@NonNull Canvas canvas, int marker, float x, float y);
+
+        /**
+         * Draw a cluster of markers that are too close together to draw separately.
+         *
+         * @param canvas the canvas to draw on, in the coordinates of the view
+         * @param count  the number of markers in the cluster
+         * @param x      the x location of the center of the cluster in the view
+         * @param y      the y location of the center of the cluster in the view
+         */
+        void drawCluster(@NonNull Canvas canvas, int count, float x, float y);
+    }
+
+    /**
+     * Notified when a marker is tapped.
+     */
+    public interface OnMarkerClickListener {
+
+        /**
+         * @param overlay the overlay the marker belongs to
+         * @param marker  the index of the marker
+         */
+        void onMarkerClick(@NonNull MarkerOverlay overlay, int marker);
+    }
+
+    //roughly how many markers share each cell of the finest level of the index
+    private static final int MARKERS_PER_CELL = 4;
+    //limits how many cells the finest level has along its longer side, when markers are bunched in a line or a point
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+    private static final float DEFAULT_MARKER_RADIUS = 24f;
+
+    private float[] xs = new float[16];
+    private float[] ys = new float[16];
+    private Object[] tags = new Object[16];
+    private int count;
+
+    @Nullable private Renderer renderer;
+    @Nullable private OnMarkerClickListener clickListener;
+    private float markerRadius = DEFAULT_MARKER_RADIUS;
+    private float clusterSize;
+
+    @Nullable private View view;
+
+    //the transform from image to view coordinates the markers were last drawn with
+    private float scale = 1f;
+    private float translateX;
+    private float translateY;
+
+    //the grid index. level 0 lists the markers in each cell, and every level after it merges 2x2 cells of the one before
+    private boolean indexDirty = true;
+    private float originX;
+    private float originY;
+    private float cellSize;
+    private int levelCount;
+    private int[] levelColumns;
+    private int[] levelRows;
+    private int[][] levelCounts;
+    private float[][] levelSumXs;
+    private float[][] levelSumYs;
+    //a marker in each cell, which is the only one in cells that have a single marker
+    private int[][] levelMarkers;
+    private int[] cellStarts;
+    private int[] cellMarkers;
+
+    /**
+     * Add a marker.
+     *
+     * @param x   the x location of the marker on the image, in the drawable's intrinsic coordinates
+     * @param y   the y location of the marker on the image, in the drawable's intrinsic coordinates
+     * @param tag any object to associate with the marker, or null
+     * @return the index of the marker
+     */
+    public int addMarker(final float x, final float y, @Nullable final Object tag) {
+        if (count == xs.length) {
+            final int capacity = count * 2;
+            final float[] grownXs = new float[capacity];
+            final float[] grownYs = new float[capacity];
+            final Object[] grownTags = new Object[capacity];
+            System.arraycopy(xs, 0, grownXs, 0, count);
+            System.arraycopy(ys, 0, grownYs, 0, count);
+            System.arraycopy(tags, 0, grownTags, 0, count);
+            xs = grownXs;
+            ys = grownYs;
+            tags = grownTags;
+        }
+
+        xs[count] = x;
+        ys[count] = y;
+        tags[count] = tag;
+        markersChanged();
+        return count++;
+    }
+
+    /**
+     * Move an existing marker.
+     *
+     * @param marker the index of the marker
+     * @param x      the new x location of the marker on the image
+     * @param y      the new y location of the marker on the image
+     */
+    public void setMarkerPosition(final int marker, final float x, final float y) {
+        checkMarker(marker);
+        xs[marker] = x;
+        ys[marker] = y;
+        markersChanged();
+    }
+
+    /**
+     * Remove every marker.
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            tags[i] = null;
+        }
+
+        count = 0;
+        markersChanged();
+    }
+
+    public int getMarkerCount() {
+        return count;
+    }
+
+    public float getMarkerX(final int marker) {
+        checkMarker(marker);
+        return xs[marker];
+    }
+
+    public float getMarkerY(final int marker) {
+        checkMarker(marker);
+        return ys[marker];
+    }
+
+    @Nullable
+    public Object getMarkerTag(final int marker) {
+        checkMarker(marker);
+        return tags[marker];
+    }
+
+    private void checkMarker(final int marker) {
+        if (marker < 0 || marker >= count) {
+            throw new IndexOutOfBoundsException("No marker at index " + marker + ", there are " + count);
+        }
+    }
+
+    /**
+     * Set the renderer that draws the markers. Nothing is drawn without one.
+     *
+     * @param renderer the renderer, or null to draw nothing
+     */
+    public void setRenderer(@Nullable final Renderer renderer) {
+        this.renderer = renderer;
+        invalidate();
+    }
+
+    /**
+     * Set a listener to be notified when a marker is tapped.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setOnMarkerClickListener(@Nullable final OnMarkerClickListener listener) {
+        this.clickListener = listener;
+    }
+
+    public float getMarkerRadius() {
+        return markerRadius;
+    }
+
+    /**
+     * Set how far in pixels a marker extends from its location when drawn. Markers are found within
+     * this distance of a tap, and drawn while within this distance of the view. Default value is 24px.
+     *
+     * @param markerRadius the radius of a marker in pixels
+     */
+    public void setMarkerRadius(final float markerRadius) {
+        this.markerRadius = Math.max(0, markerRadius);
+        invalidate();
+    }
+
+    public float getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * Set the size in pixels of the area that markers are clustered within. Markers that fall in the same
+     * area at the current zoom are drawn as a single cluster, so zooming in splits clusters apart.
+     * Default value is 0, which never clusters markers.
+     *
+     * @param clusterSize the size of a cluster in pixels, or 0 to disable clustering
+     */
+    public void setClusterSize(final float clusterSize) {
+        this.clusterSize = Math.max(0, clusterSize);
+        invalidate();
+    }
+
+    void setView(@Nullable final View view) {
+        this.view = view;
+    }
+
+    private void markersChanged() {
+        indexDirty = true;
+        invalidate();
+    }
+
+    private void invalidate() {
+        if (view != null) {
+            view.invalidate();
+        }
+    }
+
+    /**
+     * Draw the markers in view.
+     *
+     * @param canvas     the canvas to draw on
+     * @param scale      the scale from image to view coordinates
+     * @param translateX the horizontal translation from image to view coordinates
+     * @param translateY the vertical translation from image to view coordinates
+     * @param width      the width of the view
+     * @param height     the height of the view
+     */
+    void draw(final Canvas canvas, final float scale, final float translateX, final float translateY,
+              final int width, final int height) {
+        this.scale = scale;
+        this.translateX = translateX;
+        this.translateY = translateY;
+
+        if (renderer == null || count == 0 || scale <= 0) {
+            return;
+        }
+
+        if (indexDirty) {
+            buildIndex();
+        }
+
+        //the area of the image in view, grown by the radius of a marker
+        final float margin = markerRadius / scale;
+        final float left = -translateX / scale - margin;
+        final float top = -translateY / scale - margin;
+        final float right = (width - translateX) / scale + margin;
+        final float bottom = (height - translateY) / scale + margin;
+
+        if (right < originX || bottom < originY
+                || left > originX + levelColumns[0] * cellSize || top > originY + levelRows[0] * cellSize) {
+            return;
+        }
+
+        final int level = getClusterLevel();
+        if (level < 0) {
+            drawMarkers(canvas, left, top, right, bottom);
+        } else {
+            drawClusters(canvas, level, left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Get the coarsest level of the index whose cells are no larger than a cluster at the
+     * current zoom, or -1 if even the finest cells are larger and markers shouldn't be clustered.
+     */
+    private int getClusterLevel() {
+        int level = -1;
+        float size = cellSize * scale;
+
+        while (size <= clusterSize && level < levelCount - 1) {
+            level++;
+            size *= 2;
+        }
+
+        return level;
+    }
+
+    private void drawMarkers(final Canvas canvas, final float left, final float top, final float right, final float bottom) {
+        final int columns = levelColumns[0];
+        final int firstColumn = getColumn(left, 0);
+        final int lastColumn = getColumn(right, 0);
+        final int firstRow = getRow(top, 0);
+        final int lastRow = getRow(bottom, 0);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int cell = row * columns + column;
+
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    final int marker = cellMarkers[i];
+                    final float x = xs[marker];
+                    final float y = ys[marker];
+
+                    if (x >= left && x <= right && y >= top && y <= bottom) {
+                        renderer.drawMarker(canvas, marker, x * scale + translateX, y * scale + translateY);
+                    }
+                }
+            }
+        }
+    }
+
+    private void drawClusters(final Canvas canvas, final int level, final float left, final float top,
+                              final float right, final float bottom) {
+        final int columns = levelColumns[level];
+        final int[] counts = levelCounts[level];
+        final int firstColumn = getColumn(left, level);
+        final int lastColumn = getColumn(right, level);
+        final int firstRow = getRow(top, level);
+        final int lastRow = getRow(bottom, level);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int cell = row * columns + column;
+                final int cellCount = counts[cell];
+
+                if (cellCount == 1) {
+                    final int marker = levelMarkers[level][cell];
+                    renderer.drawMarker(canvas, marker, xs[marker] * scale + translateX, ys[marker] * scale + translateY);
+                } else if (cellCount > 1) {
+                    renderer.drawCluster(canvas, cellCount,
+                            levelSumXs[level][cell] / cellCount * scale + translateX,
+                            levelSumYs[level][cell] / cellCount * scale + translateY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the marker nearest to a point in the view, within the marker radius, as last drawn.
+     *
+     * @param viewX the x location in the view
+     * @param viewY the y location in the view
+     * @return the index of the marker, or -1 if there isn't one there
+     */
+    public int findMarkerAt(final float viewX, final float viewY) {
+        if (count == 0 || scale <= 0) {
+            return -1;
+        }
+
+        if (indexDirty) {
+            buildIndex();
+        }
+
+        //map the point back to the image
+        final float x = (viewX - translateX) / scale;
+        final float y = (viewY - translateY) / scale;
+        final float radius = markerRadius / scale;
+
+        final int columns = levelColumns[0];
+        final int firstColumn = getColumn(x - radius, 0);
+        final int lastColumn = getColumn(x + radius, 0);
+        final int firstRow = getRow(y - radius, 0);
+        final int lastRow = getRow(y + radius, 0);
+
+        int nearest = -1;
+        float nearestDistance = radius * radius;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int cell = row * columns + column;
+
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    final int marker = cellMarkers[i];
+                    final float dx = xs[marker] - x;
+                    final float dy = ys[marker] - y;
+                    final float distance = dx * dx + dy * dy;
+
+                    if (distance <= nearestDistance) {
+                        nearest = marker;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Notify the click listener if there's a marker at a tapped point in the view.
+     *
+     * @return true if a marker was clicked
+     */
+    boolean performClickAt(final float viewX, final float viewY) {
+        if (clickListener == null) {
+            return false;
+        }
+
+        final int marker = findMarkerAt(viewX, viewY);
+        if (marker < 0) {
+            return false;
+        }
+
+        clickListener.onMarkerClick(this, marker);
+        return true;
+    }
+
+    private int getColumn(final float x, final int level) {
+        final int column = (int) Math.floor((x - originX) / (cellSize * (1 << level)));
+        return Math.max(0, Math.min(levelColumns[level] - 1, column));
+    }
+
+    private int getRow(final float y, final int level) {
+        final int row = (int) Math.floor((y - originY) / (cellSize * (1 << level)));
+        return Math.max(0, Math.min(levelRows[level] - 1, row));
+    }
+
+    /**
+     * Sort the markers into a grid sized for their number and extent, then merge it into coarser levels.
+     */
+    private void buildIndex() {
+        indexDirty = false;
+
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        final float width = Math.max(1, maxX - minX);
+        final float height = Math.max(1, maxY - minY);
+        originX = minX;
+        originY = minY;
+        cellSize = Math.max((float) Math.sqrt(width * height * MARKERS_PER_CELL / Math.max(1, count)),
+                Math.max(width, height) / MAX_CELLS_PER_SIDE);
+
+        levelCount = 1;
+        for (int size = Math.max(getCellCount(width), getCellCount(height)); size > 1; size = (size + 1) / 2) {
+            levelCount++;
+        }
+
+        levelColumns = new int[levelCount];
+        levelRows = new int[levelCount];
+        levelCounts = new int[levelCount][];
+        levelSumXs = new float[levelCount][];
+        levelSumYs = new float[levelCount][];
+        levelMarkers = new int[levelCount][];
+
+        levelColumns[0] = getCellCount(width);
+        levelRows[0] = getCellCount(height);
+        final int cells = levelColumns[0] * levelRows[0];
+        allocateLevel(0);
+
+        //count the markers in each cell, then place them in cell order
+        cellStarts = new int[cells + 1];
+        cellMarkers = new int[count];
+        final int[] counts = levelCounts[0];
+        for (int i = 0; i < count; i++) {
+            final int cell = getRow(ys[i], 0) * levelColumns[0] + getColumn(xs[i], 0);
+            counts[cell]++;
+            levelSumXs[0][cell] += xs[i];
+            levelSumYs[0][cell] += ys[i];
+            levelMarkers[0][cell] = i;
+        }
+
+        for (int cell = 0; cell < cells; cell++) {
+            cellStarts[cell + 1] = cellStarts[cell] + counts[cell];
+        }
+
+        final int[] cursors = new int[cells];
+        System.arraycopy(cellStarts, 0, cursors, 0, cells);
+        for (int i = 0; i < count; i++) {
+            final int cell = getRow(ys[i], 0) * levelColumns[0] + getColumn(xs[i], 0);
+            cellMarkers[cursors[cell]++] = i;
+        }
+
+        for (int level = 1; level < levelCount; level++) {
+            levelColumns[level] = (levelColumns[level - 1] + 1) / 2;
+            levelRows[level] = (levelRows[level - 1] + 1) / 2;
+            allocateLevel(level);
+            mergeLevel(level);
+        }
+    }
+
+    private int getCellCount(final float extent) {
+        return (int) (extent / cellSize) + 1;
+    }
+
+    private void allocateLevel(final int level) {
+        final int cells = levelColumns[level] * levelRows[level];
+        levelCounts[level] = new int[cells];
+        levelSumXs[level] = new float[cells];
+        levelSumYs[level] = new float[cells];
+        levelMarkers[level] = new int[cells];
+    }
+
+    /**
+     * Fill a level by merging each 2x2 block of cells of the level before it.
+     */
+    private void mergeLevel(final int level) {
+        final int finerColumns = levelColumns[level - 1];
+        final int finerRows = levelRows[level - 1];
+        final int columns = levelColumns[level];
+
+        for (int finerRow = 0; finerRow < finerRows; finerRow++) {
+            for (int finerColumn = 0; finerColumn < finerColumns; finerColumn++) {
+                final int finerCell = finerRow * finerColumns + finerColumn;
+                final int finerCount = levelCounts[level - 1][finerCell];
+                if (finerCount == 0) {
+                    continue;
+                }
+
+                final int cell = (finerRow / 2) * columns + finerColumn / 2;
+                levelCounts[level][cell] += finerCount;
+                levelSumXs[level][cell] += levelSumXs[level - 1][finerCell];
+                levelSumYs[level][cell] += levelSumYs[level - 1][finerCell];
+                levelMarkers[level][cell] = levelMarkers[level - 1][finerCell];
+            }
+        }
+    }
+}
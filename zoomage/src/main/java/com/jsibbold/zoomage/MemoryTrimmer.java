@@ -0,0 +1,73 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Passes memory pressure from the system to every {@link ZoomageView} that has been attached,
+ * including those detached but still kept around, such as by a recycler view. Views are held
+ * weakly, so registering one never keeps it alive. Only used on the main thread.
+ */
+final class MemoryTrimmer implements ComponentCallbacks2 {
+
+    private static MemoryTrimmer instance;
+
+    private final WeakHashMap<ZoomageView, Boolean> views = new WeakHashMap<>();
+
+    private MemoryTrimmer() {
+    }
+
+    /**
+     * Start passing memory pressure to a view, if it isn't already.
+     *
+     * @param context the context of the view
+     * @param view    the view
+     */
+    static void register(@NonNull final Context context, @NonNull final ZoomageView view) {
+        if (instance == null) {
+            final Context applicationContext = context.getApplicationContext();
+            instance = new MemoryTrimmer();
+            (applicationContext != null ? applicationContext : context).registerComponentCallbacks(instance);
+        }
+
+        instance.views.put(view, Boolean.TRUE);
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        //views may change the set while trimming, by being garbage collected
+        for (ZoomageView view : new ArrayList<>(views.keySet())) {
+            view.trimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull final Configuration newConfig) {
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A chain of copies of a bitmap, each half the size of the one before, built in the background for
+ * {@link ZoomageView}. Drawing a minified image from the level closest to its displayed size samples
+ * a handful of pixels per displayed pixel rather than skipping over most of them, which is both
+ * cheaper and free of the shimmering that skipping causes while zooming out.
+ *
+ * The levels use a third more memory than the bitmap itself. The bitmap is left untouched, as it
+ * is owned by whoever set it.
+ */
+final class MipmapPyramid implements Runnable {
+
+    /**
+     * Called on the main thread once the levels have been built.
+     */
+    interface Callback {
+        void onMipmapsBuilt(MipmapPyramid pyramid);
+    }
+
+    //levels smaller than this are never drawn sharper than the level above, scaled down by the canvas
+    private static final int MIN_LEVEL_SIZE = 32;
+
+    private final Bitmap bitmap;
+    private final Callback callback;
+
+    private volatile boolean cancelled;
+    private DecodeScheduler.Task task;
+
+    //the levels below the bitmap, from largest to smallest, set on the main thread once built
+    @Nullable private Bitmap[] levels;
+
+    /**
+     * @param bitmap the bitmap to build the levels from
+     */
+    MipmapPyramid(final Bitmap bitmap, final Callback callback) {
+        this.bitmap = bitmap;
+        this.callback = callback;
+    }
+
+    /**
+     * @param owner the view the levels are built for, which decides how soon they're built
+     */
+    MipmapPyramid start(@Nullable final DecodeScheduler.Owner owner) {
+        task = DecodeScheduler.submit(owner, this);
+        return this;
+    }
+
+    /**
+     * @return the bitmap the levels are built from
+     */
+    Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * Get the smallest level that still has at least one pixel per displayed pixel.
+     *
+     * @param scale the number of displayed pixels per pixel of the bitmap
+     * @return the level, or null if the bitmap itself should be drawn or the levels aren't built yet
+     */
+    @Nullable
+    Bitmap getLevel(final float scale) {
+        if (levels == null) {
+            return null;
+        }
+
+        Bitmap level = null;
+        for (Bitmap candidate : levels) {
+            if (candidate.getWidth() < scale * bitmap.getWidth()) {
+                break;
+            }
+            level = candidate;
+        }
+
+        return level;
+    }
+
+    /**
+     * Stop building the levels, and release them if they were built.
+     */
+    void recycle() {
+        cancelled = true;
+        if (task != null) {
+            task.cancel();
+        }
+
+        if (levels != null) {
+            for (Bitmap level : levels) {
+                level.recycle();
+            }
+            levels = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        int count = 0;
+        for (int size = Math.max(bitmap.getWidth(), bitmap.getHeight()) / 2; size >= MIN_LEVEL_SIZE; size /= 2) {
+            count++;
+        }
+
+        final Bitmap[] built = new Bitmap[count];
+        Bitmap previous = bitmap;
+        for (int i = 0; i < count; i++) {
+            if (cancelled || bitmap.isRecycled()) {
+                recycleLevels(built);
+                return;
+            }
+
+            //halving with filtering averages each 2x2 block, which is what keeps the levels from aliasing
+            try {
+                built[i] = Bitmap.createScaledBitmap(previous, Math.max(1, previous.getWidth() / 2),
+                        Math.max(1, previous.getHeight() / 2), true);
+            } catch (OutOfMemoryError | RuntimeException e) {
+                //there's no room for the levels, or the bitmap was recycled while being scaled,
+                //so the bitmap keeps being drawn on its own
+                recycleLevels(built);
+                return;
+            }
+            previous = built[i];
+        }
+
+        ImageLoader.MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelled) {
+                    recycleLevels(built);
+                    return;
+                }
+
+                levels = built;
+                callback.onMipmapsBuilt(MipmapPyramid.this);
+            }
+        });
+    }
+
+    private static void recycleLevels(final Bitmap[] levels) {
+        for (Bitmap level : levels) {
+            if (level != null) {
+                level.recycle();
+            }
+        }
+    }
+}
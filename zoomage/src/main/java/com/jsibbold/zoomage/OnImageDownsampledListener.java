@@ -0,0 +1,34 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+/**
+ * Notified when a {@link ZoomageView} with its memory guard enabled displays a downsampled
+ * copy of a bitmap that was too large to display as it was.
+ */
+public interface OnImageDownsampledListener {
+
+    /**
+     * Called on the main thread once the downsampled copy is displayed.
+     *
+     * @param originalWidth  the width of the bitmap that was set
+     * @param originalHeight the height of the bitmap that was set
+     * @param width          the width of the displayed copy
+     * @param height         the height of the displayed copy
+     * @param bytesSaved     how many fewer bytes the displayed copy uses than the bitmap that was set
+     */
+    void onImageDownsampled(int originalWidth, int originalHeight, int width, int height, long bytesSaved);
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+/**
+ * Receives changes to the transform of a {@link ZoomageView}'s image, such as to keep an overlay
+ * or minimap in sync with it. Every call is made on the main thread with primitive values, so
+ * following the image doesn't allocate.
+ */
+public interface OnTransformChangeListener {
+
+    /**
+     * Called at most once per frame, just before it's drawn, when the image has been scaled or moved.
+     *
+     * @param scale      the current scale of the image
+     * @param translateX the current horizontal translation of the image
+     * @param translateY the current vertical translation of the image
+     */
+    void onTransformChanged(float scale, float translateX, float translateY);
+
+    /**
+     * Called when a finger first touches the image.
+     */
+    void onGestureStart();
+
+    /**
+     * Called when the last finger is lifted from the image, before any reset, center or fling that follows it.
+     */
+    void onGestureEnd();
+
+    /**
+     * Called once the image has stopped moving, after any reset, center or fling animation has finished.
+     * This is a good time to do heavy work such as loading a sharper image.
+     */
+    void onTransformSettled();
+}
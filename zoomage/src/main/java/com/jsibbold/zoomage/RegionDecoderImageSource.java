@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link ImageSource} for a single encoded image, decoded a region at a time with a {@link BitmapRegionDecoder}.
+ */
+final class RegionDecoderImageSource implements ImageSource {
+
+    /**
+     * Size in decoded pixels of a single tile.
+     */
+    private static final int TILE_SIZE = 512;
+
+    private final String source;
+    private final StreamOpener opener;
+    private BitmapRegionDecoder decoder;
+
+    /**
+     * @param source a string uniquely identifying the image
+     * @param opener opens the encoded image
+     */
+    RegionDecoderImageSource(final String source, final StreamOpener opener) {
+        this.source = source;
+        this.opener = opener;
+    }
+
+    @Override
+    public void open() throws IOException {
+        final InputStream stream = opener.open();
+        try {
+            decoder = BitmapRegionDecoder.newInstance(stream, false);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    @Override
+    public int getTileSize() {
+        return TILE_SIZE;
+    }
+
+    @Nullable
+    @Override
+    public Bitmap decodeRegion(@NonNull final Rect region, final int sampleSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        return decoder.decodeRegion(region, options);
+    }
+
+    @Override
+    public void recycle() {
+        if (decoder != null) {
+            decoder.recycle();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getCacheKey() {
+        return source;
+    }
+}
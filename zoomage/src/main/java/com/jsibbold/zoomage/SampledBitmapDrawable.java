@@ -0,0 +1,149 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link BitmapDrawable} for a bitmap that was decoded with a sample size. Its intrinsic size
+ * is the size of the full resolution image rather than the size of the decoded bitmap, so the image
+ * is laid out the same no matter how much it was downsampled.
+ *
+ * A sharper upgrade of the bitmap can be set once it has been decoded, which crossfades in over
+ * the original bitmap, and can be released again to fall back to the original.
+ */
+class SampledBitmapDrawable extends BitmapDrawable {
+
+    private static final int CROSSFADE_DURATION = 200;
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int sampleSize;
+
+    private final Paint upgradePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF drawBounds = new RectF();
+
+    @Nullable private Bitmap upgradeBitmap;
+    private int upgradeSampleSize;
+    private boolean recycleUpgrade;
+    private long crossfadeStart;
+
+    SampledBitmapDrawable(final Resources resources, final Bitmap bitmap,
+                          final int imageWidth, final int imageHeight, final int sampleSize) {
+        super(resources, bitmap);
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @return the sample size the bitmap was decoded with
+     */
+    int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return the sample size of the sharpest bitmap currently displayed
+     */
+    int getDisplayedSampleSize() {
+        return upgradeBitmap != null ? upgradeSampleSize : sampleSize;
+    }
+
+    /**
+     * @return the bitmap currently displayed on its own, or null while crossfading between two bitmaps
+     */
+    @Nullable
+    Bitmap getDisplayedBitmap() {
+        if (upgradeBitmap == null) {
+            return getBitmap();
+        }
+
+        return SystemClock.uptimeMillis() - crossfadeStart >= CROSSFADE_DURATION ? upgradeBitmap : null;
+    }
+
+    /**
+     * Display a sharper version of the bitmap, crossfading to it from the current one.
+     *
+     * @param bitmap           the sharper bitmap
+     * @param sampleSize       the sample size the sharper bitmap was decoded with
+     * @param recycleOnRelease true to recycle the bitmap once it is released, false if it is owned elsewhere
+     */
+    void setUpgrade(final Bitmap bitmap, final int sampleSize, final boolean recycleOnRelease) {
+        releaseUpgrade();
+        upgradeBitmap = bitmap;
+        upgradeSampleSize = sampleSize;
+        recycleUpgrade = recycleOnRelease;
+        crossfadeStart = SystemClock.uptimeMillis();
+        invalidateSelf();
+    }
+
+    /**
+     * Release the sharper bitmap, if any, and go back to displaying the original bitmap.
+     */
+    void releaseUpgrade() {
+        if (upgradeBitmap != null) {
+            if (recycleUpgrade) {
+                upgradeBitmap.recycle();
+            }
+            upgradeBitmap = null;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+        if (upgradeBitmap == null) {
+            super.draw(canvas);
+            return;
+        }
+
+        final float fraction = Math.min(1f, (SystemClock.uptimeMillis() - crossfadeStart) / (float) CROSSFADE_DURATION);
+
+        //the original stays underneath until the upgrade is fully opaque
+        if (fraction < 1f) {
+            super.draw(canvas);
+        }
+
+        drawBounds.set(getBounds());
+        upgradePaint.setAlpha((int) (getPaint().getAlpha() * fraction));
+        upgradePaint.setColorFilter(getPaint().getColorFilter());
+        upgradePaint.setFilterBitmap(getPaint().isFilterBitmap());
+        canvas.drawBitmap(upgradeBitmap, null, drawBounds, upgradePaint);
+
+        if (fraction < 1f) {
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return imageWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return imageHeight;
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens a new stream of an encoded image each time it is called, so an image
+ * can be read more than once, such as to decode its bounds before decoding it.
+ */
+interface StreamOpener {
+
+    InputStream open() throws IOException;
+}
@@ -0,0 +1,470 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A {@link Drawable} for images too large to be decoded in full. Only the tiles that fall
+ * within the current viewport are decoded from an {@link ImageSource}, with a sample size
+ * matching the current display scale, so memory use depends on the size of the screen rather
+ * than the size of the image. A low resolution base layer of the whole image is drawn beneath
+ * the tiles so there is always something to show while tiles are being decoded.
+ *
+ * The intrinsic size of this drawable is the full resolution size of the image, so the image
+ * matrix of a {@link ZoomageView} treats it exactly like a regular full size drawable.
+ *
+ * When a {@link BitmapCache} is given, decoded tiles are kept in it rather than recycled when
+ * they are released, so scrolling back over a region or reopening the image doesn't decode it again.
+ */
+class TiledImageDrawable extends Drawable {
+
+    private final ImageSource imageSource;
+    @Nullable private final String source;
+    @Nullable private final BitmapCache cache;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int tileSize;
+
+    private final Bitmap baseBitmap;
+    private final int baseSampleSize;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF imageRect = new RectF();
+    private final RectF viewport = new RectF();
+    private final RectF visibleRect = new RectF();
+    private final Rect clipBounds = new Rect();
+
+    //tiles for the current sample size, indexed by row * columns + column
+    private Tile[] tiles;
+    private int columns;
+    private int rows;
+    private int sampleSize;
+
+    //the range of tiles drawn last frame, so only those need checking for tiles that scrolled out of view
+    private int drawnFirstColumn = -1;
+    private int drawnLastColumn = -2;
+    private int drawnFirstRow = -1;
+    private int drawnLastRow = -2;
+
+    @Nullable private DecodeScheduler.Owner decodeOwner;
+    private boolean recycled;
+
+    private TiledImageDrawable(final ImageSource imageSource, @Nullable final BitmapCache cache,
+                               final Bitmap baseBitmap, final int baseSampleSize) {
+        this.imageSource = imageSource;
+        this.source = imageSource.getCacheKey();
+        this.cache = cache;
+        this.imageWidth = imageSource.getWidth();
+        this.imageHeight = imageSource.getHeight();
+        this.tileSize = imageSource.getTileSize();
+        this.baseBitmap = baseBitmap;
+        this.baseSampleSize = baseSampleSize;
+        this.sampleSize = baseSampleSize;
+        imageRect.set(0, 0, imageWidth, imageHeight);
+        viewport.set(imageRect);
+    }
+
+    /**
+     * Open a tiled image from the given source, and decode its base layer. This performs I/O and
+     * decoding, so it should not be called from the main thread.
+     *
+     * @param imageSource      the image, which is recycled along with the drawable
+     * @param cache            the cache to keep decoded bitmaps in, or null to not cache them
+     * @param maxBaseDimension the maximum width or height of the low resolution base layer,
+     *                         usually the largest dimension of the screen
+     * @return a drawable displaying the image
+     * @throws IOException if the image could not be read or its format is not supported
+     */
+    static TiledImageDrawable create(final ImageSource imageSource, @Nullable final BitmapCache cache,
+                                     final int maxBaseDimension) throws IOException {
+        imageSource.open();
+        final int width = imageSource.getWidth();
+        final int height = imageSource.getHeight();
+
+        int baseSampleSize = 1;
+        while (Math.max(width, height) / baseSampleSize > maxBaseDimension) {
+            baseSampleSize *= 2;
+        }
+
+        final String source = imageSource.getCacheKey();
+        final Rect imageRegion = new Rect(0, 0, width, height);
+        final BitmapCache.Key baseKey = cache != null && source != null ? new BitmapCache.Key(source, baseSampleSize, imageRegion) : null;
+
+        Bitmap base = baseKey != null ? cache.get(baseKey) : null;
+        if (base == null) {
+            base = decodeRegion(imageSource, imageRegion, baseSampleSize);
+            if (base == null) {
+                imageSource.recycle();
+                throw new IOException("Unable to decode image");
+            }
+
+            if (baseKey != null) {
+                cache.put(baseKey, base);
+            }
+        }
+
+        return new TiledImageDrawable(imageSource, cache, base, baseSampleSize);
+    }
+
+    @Nullable
+    private static Bitmap decodeRegion(final ImageSource imageSource, final Rect region, final int sampleSize) {
+        try {
+            return imageSource.decodeRegion(region, sampleSize);
+        } catch (IOException | RuntimeException e) {
+            //the source was recycled, or the region could not be decoded
+            return null;
+        }
+    }
+
+    /**
+     * Get the largest power of two sample size that still provides at least one
+     * decoded pixel per displayed pixel at the given scale.
+     *
+     * @param scale the number of displayed pixels per full resolution image pixel
+     * @return the sample size to decode tiles with
+     */
+    static int calculateSampleSize(final float scale) {
+        int sampleSize = 1;
+        if (scale > 0) {
+            while (sampleSize * 2 <= 1f / scale) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Set the portion of the image that is currently visible, in full resolution image coordinates,
+     * and the scale it is displayed at. Tiles are decoded and released based on these values the next
+     * time the drawable is drawn.
+     *
+     * @param scale  the number of displayed pixels per full resolution image pixel
+     * @param left   left edge of the visible region
+     * @param top    top edge of the visible region
+     * @param right  right edge of the visible region
+     * @param bottom bottom edge of the visible region
+     */
+    void setViewport(final float scale, final float left, final float top, final float right, final float bottom) {
+        viewport.set(left, top, right, bottom);
+        if (!viewport.intersect(imageRect)) {
+            viewport.setEmpty();
+        }
+
+        final int newSampleSize = Math.min(calculateSampleSize(scale), baseSampleSize);
+        if (newSampleSize != sampleSize) {
+            releaseTiles();
+            sampleSize = newSampleSize;
+            tiles = null;
+        }
+    }
+
+    /**
+     * @return the sample size tiles are currently decoded with
+     */
+    int getSampleSize() {
+        return sampleSize;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return imageWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return imageHeight;
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+        if (recycled) {
+            return;
+        }
+
+        final Rect drawBounds = getBounds();
+        final int saveCount = canvas.save();
+        canvas.translate(drawBounds.left, drawBounds.top);
+        canvas.scale(drawBounds.width() / (float) imageWidth, drawBounds.height() / (float) imageHeight);
+
+        canvas.drawBitmap(baseBitmap, null, imageRect, paint);
+
+        //the base layer already provides enough detail at this scale
+        if (sampleSize < baseSampleSize) {
+            drawTiles(canvas);
+        }
+
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void drawTiles(final Canvas canvas) {
+        final int tileExtent = tileSize * sampleSize;
+
+        if (tiles == null) {
+            columns = (imageWidth + tileExtent - 1) / tileExtent;
+            rows = (imageHeight + tileExtent - 1) / tileExtent;
+            tiles = new Tile[columns * rows];
+            drawnFirstColumn = -1;
+            drawnLastColumn = -2;
+            drawnFirstRow = -1;
+            drawnLastRow = -2;
+        }
+
+        int firstColumn = -1;
+        int lastColumn = -2;
+        int firstRow = -1;
+        int lastRow = -2;
+
+        //only the part of the viewport the canvas will actually draw, the clip already being in image
+        //coordinates. a canvas that can't report its clip is drawn across the whole viewport
+        visibleRect.set(viewport);
+        if (canvas.getClipBounds(clipBounds) && !visibleRect.intersect(clipBounds.left, clipBounds.top,
+                clipBounds.right, clipBounds.bottom)) {
+            visibleRect.setEmpty();
+        }
+
+        if (!visibleRect.isEmpty()) {
+            firstColumn = Math.max(0, (int) (visibleRect.left / tileExtent));
+            lastColumn = Math.min(columns - 1, (int) (visibleRect.right / tileExtent));
+            firstRow = Math.max(0, (int) (visibleRect.top / tileExtent));
+            lastRow = Math.min(rows - 1, (int) (visibleRect.bottom / tileExtent));
+        }
+
+        //tiles that scroll out of view are released so memory stays bound to the screen size
+        for (int row = drawnFirstRow; row <= drawnLastRow; row++) {
+            for (int column = drawnFirstColumn; column <= drawnLastColumn; column++) {
+                final Tile tile = tiles[row * columns + column];
+                final boolean visible = row >= firstRow && row <= lastRow && column >= firstColumn && column <= lastColumn;
+                if (tile != null && !visible) {
+                    releaseTile(tile);
+                }
+            }
+        }
+
+        drawnFirstColumn = firstColumn;
+        drawnLastColumn = lastColumn;
+        drawnFirstRow = firstRow;
+        drawnLastRow = lastRow;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int index = row * columns + column;
+                Tile tile = tiles[index];
+
+                if (tile == null) {
+                    //tiles only get a cache key when there is a cache to keep them in
+                    tile = new Tile(cache != null ? source : null, sampleSize, index, column * tileExtent, row * tileExtent,
+                            Math.min(imageWidth, (column + 1) * tileExtent),
+                            Math.min(imageHeight, (row + 1) * tileExtent));
+                    tiles[index] = tile;
+                }
+
+                tile.visible = true;
+
+                if (tile.bitmap == null && !tile.loading && tile.key != null) {
+                    tile.bitmap = cache.get(tile.key);
+                }
+
+                if (tile.bitmap != null) {
+                    canvas.drawBitmap(tile.bitmap, null, tile.bounds, paint);
+                } else if (!tile.loading) {
+                    requestTile(tile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the view tiles are decoded for, which decides how soon they're decoded.
+     *
+     * @param owner the view's decode owner
+     */
+    void setDecodeOwner(@Nullable final DecodeScheduler.Owner owner) {
+        decodeOwner = owner;
+    }
+
+    /**
+     * Cancel the decoding of tiles that haven't started yet. They're requested again the next time they're drawn.
+     */
+    void cancelPendingTiles() {
+        if (tiles != null) {
+            for (Tile tile : tiles) {
+                if (tile != null && tile.task != null && tile.task.cancel()) {
+                    tile.task = null;
+                    tile.loading = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Release every decoded tile, keeping only the base layer. Tiles are decoded again the next time they're drawn.
+     */
+    void trimMemory() {
+        cancelPendingTiles();
+        releaseTiles();
+        tiles = null;
+    }
+
+    private void requestTile(final Tile tile) {
+        tile.loading = true;
+        tile.task = DecodeScheduler.submit(decodeOwner, new Runnable() {
+            @Override
+            public void run() {
+                //skip tiles that scrolled out of view while they were waiting
+                final Bitmap bitmap = tile.visible ? decodeRegion(imageSource, tile.region, tile.sampleSize) : null;
+
+                ImageLoader.MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        tile.task = null;
+                        tile.loading = false;
+
+                        if (bitmap != null && tile.key != null) {
+                            cache.put(tile.key, bitmap);
+                        }
+
+                        if (recycled || !isCurrent(tile) || !tile.visible) {
+                            if (bitmap != null && cache == null) {
+                                bitmap.recycle();
+                            }
+                        } else if (bitmap != null) {
+                            tile.bitmap = bitmap;
+                            invalidateSelf();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isCurrent(final Tile tile) {
+        return tiles != null && tile.sampleSize == sampleSize && tiles[tile.index] == tile;
+    }
+
+    private void releaseTiles() {
+        if (tiles != null) {
+            for (Tile tile : tiles) {
+                if (tile != null) {
+                    releaseTile(tile);
+                }
+            }
+        }
+    }
+
+    private void releaseTile(final Tile tile) {
+        tile.visible = false;
+        if (tile.bitmap != null) {
+            //cached bitmaps are left for the cache to evict, as they may be reused
+            if (cache == null) {
+                tile.bitmap.recycle();
+            }
+            tile.bitmap = null;
+        }
+    }
+
+    /**
+     * Release all decoded bitmaps along with the image source. The drawable
+     * draws nothing once it has been recycled.
+     */
+    void recycle() {
+        if (recycled) {
+            return;
+        }
+
+        recycled = true;
+        cancelPendingTiles();
+        releaseTiles();
+        tiles = null;
+        if (cache == null) {
+            baseBitmap.recycle();
+        }
+
+        //recycle in the background, as recycling may wait for a decode in progress to finish
+        DecodeScheduler.submit(decodeOwner, new Runnable() {
+            @Override
+            public void run() {
+                imageSource.recycle();
+            }
+        });
+    }
+
+    @Override
+    public void setAlpha(final int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(final ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setFilterBitmap(final boolean filter) {
+        paint.setFilterBitmap(filter);
+        invalidateSelf();
+    }
+
+    @Override
+    public boolean isFilterBitmap() {
+        return paint.isFilterBitmap();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    private static final class Tile {
+        final int sampleSize;
+        final int index;
+
+        //region of the full resolution image covered by this tile
+        final Rect region;
+        final RectF bounds;
+        @Nullable final BitmapCache.Key key;
+
+        Bitmap bitmap;
+        boolean loading;
+        @Nullable DecodeScheduler.Task task;
+        volatile boolean visible;
+
+        /**
+         * @param source the string identifying the image, or null if the tile isn't cached
+         */
+        Tile(@Nullable final String source, final int sampleSize, final int index,
+             final int left, final int top, final int right, final int bottom) {
+            this.sampleSize = sampleSize;
+            this.index = index;
+            this.region = new Rect(left, top, right, bottom);
+            this.bounds = new RectF(left, top, right, bottom);
+            this.key = source != null ? new BitmapCache.Key(source, sampleSize, region) : null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.view.MotionEvent;
+
+/**
+ * Predicts where the focus point and span of a touch gesture will be a short time from now,
+ * by extrapolating the velocity and acceleration of its most recent samples. The focus and span
+ * of each sample are calculated the same way {@link android.view.ScaleGestureDetector} does, so
+ * they can stand in for its values. It never allocates.
+ */
+final class TouchPredictor {
+
+    //predictions further ahead than this are too unreliable to be useful
+    private static final long MAX_PREDICTION_MILLIS = 40;
+    //samples closer together than this are merged, so velocity isn't measured over tiny, noisy steps
+    private static final long MIN_SAMPLE_INTERVAL_MILLIS = 8;
+    //acceleration is noisy, so only part of it is trusted
+    private static final float ACCELERATION_WEIGHT = 0.5f;
+
+    private static final int SAMPLE_COUNT = 3;
+
+    //samples from oldest to newest
+    private final long[] times = new long[SAMPLE_COUNT];
+    private final float[] xs = new float[SAMPLE_COUNT];
+    private final float[] ys = new float[SAMPLE_COUNT];
+    private final float[] spans = new float[SAMPLE_COUNT];
+    private int count;
+
+    private boolean predicted;
+    private float predictedX;
+    private float predictedY;
+    private float predictedSpan;
+
+    /**
+     * Forget all samples, such as when fingers are added or removed and the focus jumps.
+     */
+    void reset() {
+        count = 0;
+        predicted = false;
+    }
+
+    /**
+     * Add every sample of a move event, including its historical samples.
+     *
+     * @param event the move event
+     */
+    void addEvent(final MotionEvent event) {
+        final int pointerCount = event.getPointerCount();
+        final int historySize = event.getHistorySize();
+
+        for (int h = 0; h <= historySize; h++) {
+            final boolean current = h == historySize;
+            float sumX = 0;
+            float sumY = 0;
+            for (int p = 0; p < pointerCount; p++) {
+                sumX += current ? event.getX(p) : event.getHistoricalX(p, h);
+                sumY += current ? event.getY(p) : event.getHistoricalY(p, h);
+            }
+
+            final float focusX = sumX / pointerCount;
+            final float focusY = sumY / pointerCount;
+            float devSumX = 0;
+            float devSumY = 0;
+            for (int p = 0; p < pointerCount; p++) {
+                devSumX += Math.abs((current ? event.getX(p) : event.getHistoricalX(p, h)) - focusX);
+                devSumY += Math.abs((current ? event.getY(p) : event.getHistoricalY(p, h)) - focusY);
+            }
+
+            final float spanX = devSumX / pointerCount * 2;
+            final float spanY = devSumY / pointerCount * 2;
+            addSample(current ? event.getEventTime() : event.getHistoricalEventTime(h),
+                    focusX, focusY, (float) Math.hypot(spanX, spanY));
+        }
+    }
+
+    private void addSample(final long time, final float x, final float y, final float span) {
+        //the newest sample is replaced until it's far enough from the one before it to be kept
+        if (count > 1 && times[count - 1] - times[count - 2] < MIN_SAMPLE_INTERVAL_MILLIS) {
+            count--;
+        } else if (count == SAMPLE_COUNT) {
+            System.arraycopy(times, 1, times, 0, count - 1);
+            System.arraycopy(xs, 1, xs, 0, count - 1);
+            System.arraycopy(ys, 1, ys, 0, count - 1);
+            System.arraycopy(spans, 1, spans, 0, count - 1);
+            count--;
+        }
+
+        times[count] = time;
+        xs[count] = x;
+        ys[count] = y;
+        spans[count] = span;
+        count++;
+    }
+
+    /**
+     * Predict the focus and span at the given time from the samples so far.
+     *
+     * @param targetTime the uptime in milliseconds to predict for
+     * @return true if there were enough samples to make a prediction
+     */
+    boolean predict(final long targetTime) {
+        predicted = count > 1 && times[count - 1] > times[count - 2];
+        if (!predicted) {
+            return false;
+        }
+
+        final float dt = Math.max(0, Math.min(MAX_PREDICTION_MILLIS, targetTime - times[count - 1]));
+        predictedX = extrapolate(xs, dt);
+        predictedY = extrapolate(ys, dt);
+        predictedSpan = Math.max(0, extrapolate(spans, dt));
+        return true;
+    }
+
+    private float extrapolate(final float[] values, final float dt) {
+        final int newest = count - 1;
+        final float interval = times[newest] - times[newest - 1];
+        final float velocity = (values[newest] - values[newest - 1]) / interval;
+        float acceleration = 0;
+
+        if (count > 2 && times[newest - 1] > times[newest - 2]) {
+            final float previousInterval = times[newest - 1] - times[newest - 2];
+            final float previousVelocity = (values[newest - 1] - values[newest - 2]) / previousInterval;
+            acceleration = ACCELERATION_WEIGHT * (velocity - previousVelocity) / ((interval + previousInterval) / 2);
+
+            //slowing down can stop the movement, but never reverse it
+            if (velocity * (velocity + acceleration * dt) < 0) {
+                acceleration = -velocity / dt;
+            }
+        }
+
+        return values[newest] + velocity * dt + 0.5f * acceleration * dt * dt;
+    }
+
+    /**
+     * @return true if the last call to {@link #predict(long)} made a prediction
+     */
+    boolean hasPrediction() {
+        return predicted;
+    }
+
+    float getPredictedX() {
+        return predictedX;
+    }
+
+    float getPredictedY() {
+        return predictedY;
+    }
+
+    float getPredictedSpan() {
+        return predictedSpan;
+    }
+
+    /**
+     * @return the focus x of the newest actual sample
+     */
+    float getLastX() {
+        return xs[count - 1];
+    }
+
+    /**
+     * @return the focus y of the newest actual sample
+     */
+    float getLastY() {
+        return ys[count - 1];
+    }
+
+    /**
+     * @return the span of the newest actual sample
+     */
+    float getLastSpan() {
+        return spans[count - 1];
+    }
+}
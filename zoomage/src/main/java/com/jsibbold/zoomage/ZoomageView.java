@@ -18,24 +18,59 @@ package com.jsibbold.zoomage;
 import android.animation.Animator;
 import android.animation.ValueAnimator;
 import android.animation.ValueAnimator.AnimatorUpdateListener;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.Matrix;
+import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.GestureDetector;
+import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.ScaleGestureDetector.OnScaleGestureListener;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
+import android.widget.OverScroller;
 
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.appcompat.widget.AppCompatImageView;
+import androidx.core.view.NestedScrollingChild3;
+import androidx.core.view.NestedScrollingChildHelper;
 import androidx.core.view.ScaleGestureDetectorCompat;
+import androidx.core.view.ViewCompat;
+import androidx.core.widget.ImageViewCompat;
+
+import com.jsibbold.zoomage.core.ZoomTransform;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * ZoomageView is a pinch-to-zoom extension of {@link ImageView}, providing a smooth
@@ -43,53 +78,186 @@ import androidx.core.view.ScaleGestureDetectorCompat;
  * automatic resetting, and allows for exterior bounds restriction to keep the image within
  * visible window.
  */
-public class ZoomageView extends AppCompatImageView implements OnScaleGestureListener {
+public class ZoomageView extends AppCompatImageView implements OnScaleGestureListener, NestedScrollingChild3 {
+
+    private static final String TAG = "ZoomageView";
 
     private static final float MIN_SCALE = 0.6f;
     private static final float MAX_SCALE = 8f;
     private final int RESET_DURATION = 200;
 
+    //the largest bitmap a hardware canvas will draw, in bytes
+    private static final long MAX_CANVAS_BITMAP_BYTES = 100 * 1024 * 1024;
+
+    //the decoded pixels above which adaptive quality draws a moving image cheaply, on low RAM devices and others
+    private static final long ADAPTIVE_QUALITY_PIXELS = 8000000L;
+    private static final long ADAPTIVE_QUALITY_PIXELS_LOW_RAM = 2000000L;
+    //the texture size every device supports, used until a hardware canvas reports the actual limit
+    private static final int DEFAULT_MAX_BITMAP_DIMENSION = 4096;
+    private static int maxBitmapDimension = DEFAULT_MAX_BITMAP_DIMENSION;
+    private static boolean maxBitmapDimensionKnown = false;
+
     private ScaleType startScaleType;
 
     // These matrices will be used to move and zoom image
-    private Matrix matrix = new Matrix();
-    private Matrix startMatrix = new Matrix();
-
-    private float[] matrixValues = new float[9];
-    private float[] startValues = null;
+    private final Matrix matrix = new Matrix();
+    private final Matrix startMatrix = new Matrix();
 
-    private float minScale = MIN_SCALE;
-    private float maxScale = MAX_SCALE;
+    private final float[] matrixValues = new float[9];
+    private boolean startValuesSet = false;
 
-    //the adjusted scale bounds that account for an image's starting scale values
-    private float calculatedMinScale = MIN_SCALE;
-    private float calculatedMaxScale = MAX_SCALE;
+    // Created on first use, so views that are never touched or animated don't pay for them,
+    // and then kept so that gestures and animations don't allocate once they're running
+    @Nullable private float[] startValues;
+    @Nullable private Matrix zoomMatrix;
+    @Nullable private Matrix animationMatrix;
+    @Nullable private Matrix animationTargetMatrix;
+    @Nullable private float[] animationStartValues;
+    @Nullable private float[] animationTargetValues;
+    @Nullable private float[] animationValues;
 
-    private final RectF bounds = new RectF();
+    //the scale range, bounds and reset math, kept in sync with the current matrix
+    private final ZoomTransform transform = new ZoomTransform();
 
     private boolean translatable;
     private boolean zoomable;
     private boolean doubleTapToZoom;
-    private boolean restrictBounds;
     private boolean animateOnReset;
     private boolean autoCenter;
     private float doubleTapToZoomScaleFactor;
-    @AutoResetMode private int autoResetMode;
+    private boolean progressiveLoading;
+    private boolean coalesceTouchEvents;
+    private boolean flingEnabled;
+    private boolean gestureLayerEnabled;
+    private boolean memoryGuardEnabled;
+    private boolean viewportCulling;
+    private boolean predictTouch;
+    private boolean mipmapEnabled;
+    private boolean adaptiveQuality;
+    private long adaptiveQualityPixels = ADAPTIVE_QUALITY_PIXELS;
+    private long adaptiveQualityPixelsLowRam = ADAPTIVE_QUALITY_PIXELS_LOW_RAM;
+    private long maxBitmapBytes = Math.min(MAX_CANVAS_BITMAP_BYTES, Runtime.getRuntime().maxMemory() / 4);
+
+    //whether the image is drawn cheaply while it moves, and the drawable whose bitmap filtering was turned off for it
+    private boolean renderQualityReduced = false;
+    @Nullable private Drawable unfilteredDrawable;
+    private final Point decodedSize = new Point();
+    //whether the device is low on RAM, looked up the first time the adaptive quality threshold is needed
+    private boolean lowRamDevice;
+    private boolean lowRamDeviceResolved = false;
 
     private PointF last = new PointF(0, 0);
     private float startScale = 1f;
+    private float targetScale = 1f;
     private float scaleBy = 1f;
     private float currentScaleFactor = 1f;
     private int previousPointerCount = 1;
     private int currentPointerCount = 0;
 
-    private ScaleGestureDetector scaleDetector;
-    private ValueAnimator resetAnimator;
+    //the detectors are created on the first touch
+    @Nullable private ScaleGestureDetector scaleDetector;
+    //animates scale and translation together, for resetting, centering and double tap zooming. created on first use
+    @Nullable private ValueAnimator transformAnimator;
+    private boolean transformAnimatorCancelled;
 
-    private GestureDetector gestureDetector;
+    @Nullable private GestureDetector gestureDetector;
     private boolean doubleTapDetected = false;
     private boolean singleTapDetected = false;
 
+    @Nullable private VelocityTracker velocityTracker;
+    @Nullable private OverScroller flingScroller;
+    private int minFlingVelocity;
+    private int maxFlingVelocity;
+    private boolean flingRunning = false;
+    private int flingLastX;
+    private int flingLastY;
+    private int flingMinX;
+    private int flingMaxX;
+    private int flingMinY;
+    private int flingMaxY;
+
+    //pans and flings that the image can't use are passed on to a nested scrolling parent. created on first use
+    @Nullable private NestedScrollingChildHelper nestedScrollingHelper;
+    private final int[] nestedScrollConsumed = new int[2];
+    //the parts of pans too small to pass on yet, in pixels the fingers moved
+    private float nestedScrollRemainderX;
+    private float nestedScrollRemainderY;
+    private boolean nestedFlingRunning = false;
+
+    //whether the parent has been asked not to intercept touch events during this gesture
+    private boolean parentTouchDisallowed = false;
+
+    //while a gesture layer is active, matrix changes go to the layer matrix instead of the ImageView
+    private boolean gestureLayerActive = false;
+    @Nullable private Matrix layerMatrix;
+    @Nullable private RenderNode contentNode;
+    private boolean contentNodeDirty = true;
+
+    @Nullable private OnGestureMetricsListener gestureMetricsListener;
+
+    //the transform listener is told about matrix changes just before the next frame is drawn
+    @Nullable private OnTransformChangeListener transformChangeListener;
+    private boolean transformChanged = false;
+    private final float[] transformChangeValues = new float[9];
+
+    @Nullable private MarkerOverlay markerOverlay;
+    private final float[] overlayMatrixValues = new float[9];
+    //created when the first gesture is measured
+    @Nullable private GestureMetrics gestureMetrics;
+    private boolean gestureMetricsActive = false;
+    private long gestureStartNanos;
+    private long gestureReleaseNanos;
+
+    @Nullable private GestureRecorder gestureRecorder;
+
+    //used to draw only the visible part of a bitmap
+    //the inverse of the image matrix, recomputed only when the image matrix no longer matches the one it was computed from
+    @Nullable private Matrix inverseImageMatrix;
+    @Nullable private Matrix invertedImageMatrix;
+    private boolean inverseImageMatrixComputed = false;
+    private boolean imageMatrixInvertible = false;
+    private final float[] mappedPoint = new float[2];
+    private final RectF visibleImageRect = new RectF();
+    private final Rect visibleBitmapRect = new Rect();
+    private final float[] drawMatrixValues = new float[9];
+    private final RectF visibleDrawRect = new RectF();
+
+    @Nullable private TouchPredictor touchPredictor;
+    private long predictionMillis;
+
+    //decides how soon this view's images are decoded, relative to other views
+    private final DecodeScheduler.Owner decodeOwner = new DecodeScheduler.Owner();
+
+    @Nullable private BitmapDownsampler downsampler;
+    @Nullable private MipmapPyramid mipmapPyramid;
+    @Nullable private OnImageDownsampledListener imageDownsampledListener;
+
+    //when coalescing touch events, the latest touch focus and what it may do, waiting for the next frame
+    private boolean transformPending = false;
+    private boolean touchFramePosted = false;
+    private final PointF pendingFocus = new PointF();
+    private boolean pendingTranslate;
+    private boolean pendingZoom;
+    private boolean pendingScaling;
+
+    //incremented whenever the image changes, so a tiled image that finishes opening late is discarded
+    private int imageGeneration = 0;
+
+    @Nullable private BitmapCache bitmapCache;
+
+    private Bitmap.Config decodeConfig = Bitmap.Config.ARGB_8888;
+    @Nullable private ImageLoader.Request pendingLoad;
+
+    //the request that loaded the current image, and a request for a sharper version of it
+    @Nullable private ImageLoader.Request loadedRequest;
+    @Nullable private ImageLoader.Request upgradeLoad;
+
+    //a loaded image released under memory pressure while hidden, and the request reloading it once shown again
+    @Nullable private ImageLoader.Request releasedRequest;
+    @Nullable private ImageLoader.Request restoreLoad;
+    private int releasedSampleSize;
+    @Nullable private Matrix releasedMatrix;
+
     public ZoomageView(Context context) {
         super(context);
         init(context, null);
@@ -106,9 +274,6 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
     }
 
     private void init(Context context, AttributeSet attrs) {
-        scaleDetector = new ScaleGestureDetector(context, this);
-        gestureDetector = new GestureDetector(context, gestureListener);
-        ScaleGestureDetectorCompat.setQuickScaleEnabled(scaleDetector, false);
         startScaleType = getScaleType();
 
         TypedArray values = context.obtainStyledAttributes(attrs, R.styleable.ZoomageView);
@@ -117,12 +282,24 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
         translatable = values.getBoolean(R.styleable.ZoomageView_zoomage_translatable, true);
         animateOnReset = values.getBoolean(R.styleable.ZoomageView_zoomage_animateOnReset, true);
         autoCenter = values.getBoolean(R.styleable.ZoomageView_zoomage_autoCenter, true);
-        restrictBounds = values.getBoolean(R.styleable.ZoomageView_zoomage_restrictBounds, false);
+        transform.setRestrictBounds(values.getBoolean(R.styleable.ZoomageView_zoomage_restrictBounds, false));
         doubleTapToZoom = values.getBoolean(R.styleable.ZoomageView_zoomage_doubleTapToZoom, true);
-        minScale = values.getFloat(R.styleable.ZoomageView_zoomage_minScale, MIN_SCALE);
-        maxScale = values.getFloat(R.styleable.ZoomageView_zoomage_maxScale, MAX_SCALE);
+        transform.setScaleRange(values.getFloat(R.styleable.ZoomageView_zoomage_minScale, MIN_SCALE),
+                values.getFloat(R.styleable.ZoomageView_zoomage_maxScale, MAX_SCALE));
         doubleTapToZoomScaleFactor = values.getFloat(R.styleable.ZoomageView_zoomage_doubleTapToZoomScaleFactor, 3);
-        autoResetMode = AutoResetMode.Parser.fromInt(values.getInt(R.styleable.ZoomageView_zoomage_autoResetMode, AutoResetMode.UNDER));
+        progressiveLoading = values.getBoolean(R.styleable.ZoomageView_zoomage_progressiveLoading, false);
+        coalesceTouchEvents = values.getBoolean(R.styleable.ZoomageView_zoomage_coalesceTouchEvents, false);
+        flingEnabled = values.getBoolean(R.styleable.ZoomageView_zoomage_flingEnabled, false);
+        gestureLayerEnabled = values.getBoolean(R.styleable.ZoomageView_zoomage_gestureLayer, false);
+        memoryGuardEnabled = values.getBoolean(R.styleable.ZoomageView_zoomage_memoryGuard, false);
+        viewportCulling = values.getBoolean(R.styleable.ZoomageView_zoomage_viewportCulling, false);
+        setPredictTouch(values.getBoolean(R.styleable.ZoomageView_zoomage_predictTouch, false));
+        mipmapEnabled = values.getBoolean(R.styleable.ZoomageView_zoomage_mipmap, false);
+        adaptiveQuality = values.getBoolean(R.styleable.ZoomageView_zoomage_adaptiveQuality, false);
+        adaptiveQualityPixels = values.getInt(R.styleable.ZoomageView_zoomage_adaptiveQualityPixels, (int) ADAPTIVE_QUALITY_PIXELS);
+        adaptiveQualityPixelsLowRam = values.getInt(R.styleable.ZoomageView_zoomage_adaptiveQualityPixelsLowRam,
+                (int) ADAPTIVE_QUALITY_PIXELS_LOW_RAM);
+        transform.setAutoResetMode(AutoResetMode.Parser.fromInt(values.getInt(R.styleable.ZoomageView_zoomage_autoResetMode, AutoResetMode.UNDER)));
 
         verifyScaleRange();
 
@@ -130,6 +307,9 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
     }
 
     private void verifyScaleRange() {
+        final float minScale = transform.getMinScale();
+        final float maxScale = transform.getMaxScale();
+
         if (minScale >= maxScale) {
             throw new IllegalStateException("minScale must be less than maxScale");
         }
@@ -160,10 +340,9 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
      * @param maxScale maximum allowed scale
      */
     public void setScaleRange(final float minScale, final float maxScale) {
-        this.minScale = minScale;
-        this.maxScale = maxScale;
+        transform.setScaleRange(minScale, maxScale);
 
-        startValues = null;
+        startValuesSet = false;
 
         verifyScaleRange();
     }
@@ -212,7 +391,7 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
      * @return true if image bounds are restricted to the view's edges, false otherwise
      */
     public boolean getRestrictBounds() {
-        return restrictBounds;
+        return transform.getRestrictBounds();
     }
 
     /**
@@ -224,7 +403,7 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
      * @param restrictBounds true if image bounds should be restricted to the view's edges, false otherwise
      */
     public void setRestrictBounds(final boolean restrictBounds) {
-        this.restrictBounds = restrictBounds;
+        transform.setRestrictBounds(restrictBounds);
     }
 
     /**
@@ -254,7 +433,7 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
      */
     @AutoResetMode
     public int getAutoResetMode() {
-        return autoResetMode;
+        return transform.getAutoResetMode();
     }
 
     /**
@@ -264,7 +443,7 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
      *                  {@link AutoResetMode#ALWAYS ALWAYS}, or {@link AutoResetMode#NEVER NEVER}
      */
     public void setAutoResetMode(@AutoResetMode final int autoReset) {
-        this.autoResetMode = autoReset;
+        transform.setAutoResetMode(autoReset);
     }
 
     /**
@@ -325,533 +504,2654 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
     }
 
     /**
-     * Get the current scale factor of the image, in relation to its starting size.
+     * Returns whether images loaded asynchronously start at a low resolution and are
+     * replaced with sharper versions as they are zoomed.
      *
-     * @return the current scale factor
+     * @return true if progressive loading is enabled
      */
-    public float getCurrentScaleFactor() {
-        return currentScaleFactor;
+    public boolean getProgressiveLoading() {
+        return progressiveLoading;
     }
 
     /**
-     * {@inheritDoc}
+     * Set whether images loaded by {@link #loadImageURI(Uri)} or {@link #loadImageResource(int)}
+     * should be decoded at the resolution needed for their starting size only. Once a gesture settles
+     * at a zoom level that needs more detail, a sharper version is decoded in the background and
+     * crossfaded in, and it's released again when the image is reset. This saves memory for images
+     * that are rarely zoomed. Takes effect for the next image loaded. Default value is false.
+     *
+     * @param progressiveLoading true to enable progressive loading
      */
-    @Override
-    public void setScaleType(@Nullable ScaleType scaleType) {
-        if (scaleType != null) {
-            super.setScaleType(scaleType);
-            startScaleType = scaleType;
-            startValues = null;
-        }
+    public void setProgressiveLoading(final boolean progressiveLoading) {
+        this.progressiveLoading = progressiveLoading;
     }
 
     /**
-     * Set enabled state of the view. Note that this will reset the image's
-     * {@link android.widget.ImageView.ScaleType} to its pre-zoom state.
+     * Returns whether touch movement is applied to the image once per frame.
      *
-     * @param enabled enabled state
+     * @return true if touch events are coalesced
      */
-    @Override
-    public void setEnabled(final boolean enabled) {
-        super.setEnabled(enabled);
-
-        if (!enabled) {
-            setScaleType(startScaleType);
-        }
+    public boolean getCoalesceTouchEvents() {
+        return coalesceTouchEvents;
     }
 
     /**
-     * {@inheritDoc}
+     * Set whether touch movement should be applied to the image once per display frame rather than
+     * once per touch event. Every move event still feeds the gesture detectors, but the movement and
+     * scaling since the last frame are applied to the image together on the next frame. This saves
+     * work on touch screens that report more often than the display refreshes. Default value is false.
+     *
+     * @param coalesceTouchEvents true to apply touch movement once per frame
      */
-    @Override
-    public void setImageResource(int resId) {
-        super.setImageResource(resId);
-        setScaleType(startScaleType);
+    public void setCoalesceTouchEvents(final boolean coalesceTouchEvents) {
+        this.coalesceTouchEvents = coalesceTouchEvents;
+
+        if (!coalesceTouchEvents) {
+            commitPendingTransform();
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * Returns whether the image keeps moving with momentum when released during a pan.
+     *
+     * @return true if fling is enabled
      */
-    @Override
-    public void setImageDrawable(@Nullable Drawable drawable) {
-        super.setImageDrawable(drawable);
-        setScaleType(startScaleType);
+    public boolean isFlingEnabled() {
+        return flingEnabled;
     }
 
     /**
-     * {@inheritDoc}
+     * Set whether the image should keep moving with momentum when it's released during a pan,
+     * slowing down until it stops or reaches an edge. The image is centered once the fling ends,
+     * and touching the image stops it immediately. Default value is false.
+     *
+     * @param flingEnabled true to enable fling
      */
-    @Override
-    public void setImageBitmap(Bitmap bm) {
-        super.setImageBitmap(bm);
-        setScaleType(startScaleType);
+    public void setFlingEnabled(final boolean flingEnabled) {
+        this.flingEnabled = flingEnabled;
     }
 
     /**
-     * {@inheritDoc}
+     * Returns whether the image is drawn from a cached display list while it's moving.
+     *
+     * @return true if the gesture layer is enabled
      */
-    @Override
-    public void setImageURI(@Nullable Uri uri) {
-        super.setImageURI(uri);
-        setScaleType(startScaleType);
+    public boolean isGestureLayerEnabled() {
+        return gestureLayerEnabled;
     }
 
     /**
-     * Update the bounds of the displayed image based on the current matrix.
+     * Set whether the image should be recorded into a cached display list when a gesture starts,
+     * which is then redrawn through the changing transform on each frame rather than drawing the
+     * image itself again. The image matrix is only committed to the view once the image settles.
+     * This mostly benefits images that are expensive to draw, such as tiled images. Requires API 29
+     * and hardware acceleration, and has no effect otherwise. Default value is false.
      *
-     * @param values the image's current matrix values.
+     * @param gestureLayerEnabled true to enable the gesture layer
      */
-    private void updateBounds(final float[] values) {
-        if (getDrawable() != null) {
-            bounds.set(values[Matrix.MTRANS_X],
-                    values[Matrix.MTRANS_Y],
-                    getDrawable().getIntrinsicWidth() * values[Matrix.MSCALE_X] + values[Matrix.MTRANS_X],
-                    getDrawable().getIntrinsicHeight() * values[Matrix.MSCALE_Y] + values[Matrix.MTRANS_Y]);
+    public void setGestureLayerEnabled(final boolean gestureLayerEnabled) {
+        this.gestureLayerEnabled = gestureLayerEnabled;
+
+        if (!gestureLayerEnabled) {
+            endGestureLayer();
         }
     }
 
     /**
-     * Get the width of the displayed image.
+     * Whether only the visible part of a bitmap image is drawn.
      *
-     * @return the current width of the image as displayed (not the width of the {@link ImageView} itself.
+     * @return true if viewport culling is enabled
      */
-    private float getCurrentDisplayedWidth() {
-        if (getDrawable() != null)
-            return getDrawable().getIntrinsicWidth() * matrixValues[Matrix.MSCALE_X];
-        else
-            return 0;
+    public boolean getViewportCulling() {
+        return viewportCulling;
     }
 
     /**
-     * Get the height of the displayed image.
+     * Set whether only the part of a bitmap image that is visible in the view is drawn, rather than
+     * the whole bitmap through the image matrix. When zoomed in, most of the bitmap is outside the
+     * view, and skipping it saves work for software rendering. Images with tiling, gravity, a tint
+     * or in the middle of a crossfade are always drawn whole. Default is false.
      *
-     * @return the current height of the image as displayed (not the height of the {@link ImageView} itself.
+     * @param viewportCulling true to draw only the visible part of bitmap images
      */
-    private float getCurrentDisplayedHeight() {
-        if (getDrawable() != null)
-            return getDrawable().getIntrinsicHeight() * matrixValues[Matrix.MSCALE_Y];
-        else
-            return 0;
+    public void setViewportCulling(final boolean viewportCulling) {
+        this.viewportCulling = viewportCulling;
+        invalidate();
     }
 
     /**
-     * Remember our starting values so we can animate our image back to its original position.
+     * Whether minified bitmap images are drawn from a mipmap pyramid.
+     *
+     * @return true if mipmapping is enabled
      */
-    private void setStartValues() {
-        startValues = new float[9];
-        startMatrix = new Matrix(getImageMatrix());
-        startMatrix.getValues(startValues);
-        calculatedMinScale = minScale * startValues[Matrix.MSCALE_X];
-        calculatedMaxScale = maxScale * startValues[Matrix.MSCALE_X];
+    public boolean getMipmapEnabled() {
+        return mipmapEnabled;
     }
 
-    @Override
-    public boolean onTouchEvent(MotionEvent event) {
-
-        if (!isClickable() && isEnabled() && (zoomable || translatable)) {
-            if (getScaleType() != ScaleType.MATRIX) {
-                super.setScaleType(ScaleType.MATRIX);
-            }
-
-            if (startValues == null) {
-                setStartValues();
-            }
-
-            currentPointerCount = event.getPointerCount();
-
-            //get the current state of the image matrix, its values, and the bounds of the drawn bitmap
-            matrix.set(getImageMatrix());
-            matrix.getValues(matrixValues);
-            updateBounds(matrixValues);
-
-            scaleDetector.onTouchEvent(event);
-            gestureDetector.onTouchEvent(event);
-
-            if (doubleTapToZoom && doubleTapDetected) {
-                doubleTapDetected = false;
-                singleTapDetected = false;
-                if (matrixValues[Matrix.MSCALE_X] != startValues[Matrix.MSCALE_X]) {
-                    reset();
-                } else {
-                    Matrix zoomMatrix = new Matrix(matrix);
-                    zoomMatrix.postScale(doubleTapToZoomScaleFactor, doubleTapToZoomScaleFactor, scaleDetector.getFocusX(), scaleDetector.getFocusY());
-                    animateScaleAndTranslationToMatrix(zoomMatrix, RESET_DURATION);
-                }
-                return true;
-            } else if (!singleTapDetected) {
-                /* if the event is a down touch, or if the number of touch points changed,
-                 * we should reset our start point, as event origins have likely shifted to a
-                 * different part of the screen*/
-                if (event.getActionMasked() == MotionEvent.ACTION_DOWN ||
-                        currentPointerCount != previousPointerCount) {
-                    last.set(scaleDetector.getFocusX(), scaleDetector.getFocusY());
-                } else if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
-
-                    final float focusx = scaleDetector.getFocusX();
-                    final float focusy = scaleDetector.getFocusY();
-
-                    if (allowTranslate(event)) {
-                        //calculate the distance for translation
-                        float xdistance = getXDistance(focusx, last.x);
-                        float ydistance = getYDistance(focusy, last.y);
-                        matrix.postTranslate(xdistance, ydistance);
-                    }
-
-                    if (allowZoom(event)) {
-                        matrix.postScale(scaleBy, scaleBy, focusx, focusy);
-                        currentScaleFactor = matrixValues[Matrix.MSCALE_X] / startValues[Matrix.MSCALE_X];
-                    }
-
-                    setImageMatrix(matrix);
+    /**
+     * Set whether a bitmap image displayed smaller than its size should be drawn from a chain of
+     * copies of it, each half the size of the one before, rather than from the bitmap itself. The chain
+     * is built once in the background, the first time the image is drawn, and uses a third more memory
+     * than the bitmap. Zooming out and resetting then sample far fewer pixels per frame, and fine detail
+     * no longer shimmers. Images with tiling, gravity or a tint are always drawn from the bitmap.
+     * Default is false.
+     *
+     * @param mipmapEnabled true to draw minified bitmap images from a mipmap pyramid
+     */
+    public void setMipmapEnabled(final boolean mipmapEnabled) {
+        this.mipmapEnabled = mipmapEnabled;
 
-                    last.set(focusx, focusy);
-                }
+        if (!mipmapEnabled) {
+            releaseMipmaps();
+        }
+        invalidate();
+    }
 
-                if (event.getActionMasked() == MotionEvent.ACTION_UP ||
-                    event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
-                    scaleBy = 1f;
-                    resetImage();
-                }
-            }
+    /**
+     * Whether large images are drawn at a lower quality while they move.
+     *
+     * @return true if adaptive quality is enabled
+     */
+    public boolean getAdaptiveQuality() {
+        return adaptiveQuality;
+    }
 
-            getParent().requestDisallowInterceptTouchEvent(disallowParentTouch(event));
+    /**
+     * Set whether a large image should be drawn at a lower quality while it's being pinched, flung or
+     * animated, favoring frame rate while it moves and sharpness once it's at rest. Bitmap filtering is
+     * turned off, and if mipmapping is enabled the image is drawn from a mipmap level of half the resolution
+     * it needs. Full quality is restored as soon as the image settles. Which images count as large can
+     * be set with {@link #setAdaptiveQualityThresholds(long, long)}. Default value is false.
+     *
+     * @param adaptiveQuality true to draw large images at a lower quality while they move
+     */
+    public void setAdaptiveQuality(final boolean adaptiveQuality) {
+        this.adaptiveQuality = adaptiveQuality;
 
-            //this tracks whether they have changed the number of fingers down
-            previousPointerCount = currentPointerCount;
+        if (!adaptiveQuality) {
+            restoreRenderQuality();
+        }
+    }
 
+    /**
+     * Set how many decoded pixels an image needs before adaptive quality draws it at a lower quality
+     * while it moves. Low RAM devices, as reported by {@link ActivityManager#isLowRamDevice()}, usually
+     * have slower GPUs as well, so they have a threshold of their own. Defaults are 8 million pixels,
+     * and 2 million pixels on low RAM devices.
+     *
+     * @param pixels       the threshold on most devices
+     * @param lowRamPixels the threshold on low RAM devices
+     */
+    public void setAdaptiveQualityThresholds(final long pixels, final long lowRamPixels) {
+        this.adaptiveQualityPixels = pixels;
+        this.adaptiveQualityPixelsLowRam = lowRamPixels;
+    }
 
-            return true;
+    /**
+     * @return the number of decoded pixels an image needs before it's drawn at a lower quality while it
+     * moves, on the device the view is running on
+     */
+    public long getAdaptiveQualityThreshold() {
+        if (!lowRamDeviceResolved) {
+            final ActivityManager activityManager = (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+            lowRamDevice = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                    && activityManager != null && activityManager.isLowRamDevice();
+            lowRamDeviceResolved = true;
         }
 
-        return super.onTouchEvent(event);
+        return lowRamDevice ? adaptiveQualityPixelsLowRam : adaptiveQualityPixels;
     }
 
-    protected boolean disallowParentTouch(MotionEvent event) {
-        if ((currentPointerCount > 1 || currentScaleFactor > 1.0f || isAnimating())) {
-            return true;
-        } else {
-            return false;
+    /**
+     * Draw the image at a lower quality while it moves, if adaptive quality is enabled and the image is large enough.
+     */
+    private void reduceRenderQuality() {
+        final Drawable drawable = getDrawable();
+        if (!adaptiveQuality || renderQualityReduced || drawable == null) {
+            return;
         }
-    }
 
-    protected boolean allowTranslate(MotionEvent event) {
-        return translatable && currentScaleFactor > 1.0f;
-    }
+        getDecodedSize(drawable, decodedSize);
+        if ((long) decodedSize.x * decodedSize.y < getAdaptiveQualityThreshold()) {
+            return;
+        }
 
-    protected boolean allowZoom(MotionEvent event) {
-        return zoomable;
-    }
+        renderQualityReduced = true;
+        if (isFilterBitmap(drawable)) {
+            drawable.setFilterBitmap(false);
+            unfilteredDrawable = drawable;
+        }
 
-    private boolean isAnimating() {
-        return resetAnimator != null && resetAnimator.isRunning();
+        contentNodeDirty = true;
+        invalidate();
     }
 
     /**
-     * Reset the image based on the specified {@link AutoResetMode} mode.
+     * Draw the image at full quality again.
      */
-    private void resetImage() {
-        switch (autoResetMode) {
-            case AutoResetMode.UNDER:
-                if (matrixValues[Matrix.MSCALE_X] <= startValues[Matrix.MSCALE_X]) {
-                    reset();
-                } else {
-                    center();
-                }
-                break;
-            case AutoResetMode.OVER:
-                if (matrixValues[Matrix.MSCALE_X] >= startValues[Matrix.MSCALE_X]) {
-                    reset();
-                } else {
-                    center();
-                }
-                break;
-            case AutoResetMode.ALWAYS:
-                reset();
-                break;
-            case AutoResetMode.NEVER:
-                center();
+    private void restoreRenderQuality() {
+        if (!renderQualityReduced) {
+            return;
         }
+
+        renderQualityReduced = false;
+        if (unfilteredDrawable != null) {
+            unfilteredDrawable.setFilterBitmap(true);
+            unfilteredDrawable = null;
+        }
+
+        contentNodeDirty = true;
+        invalidate();
     }
 
     /**
-     * This helps to keep the image on-screen by animating the translation to the nearest
-     * edge, both vertically and horizontally.
+     * Whether a drawable filters its bitmap. {@link Drawable#isFilterBitmap()} needs API 23,
+     * so the drawables that draw bitmaps are asked directly, and others are left alone.
      */
-    private void center() {
-        if (autoCenter) {
-            animateTranslationX();
-            animateTranslationY();
+    private static boolean isFilterBitmap(final Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            return ((BitmapDrawable) drawable).getPaint().isFilterBitmap();
+        } else if (drawable instanceof TiledImageDrawable) {
+            return ((TiledImageDrawable) drawable).isFilterBitmap();
         }
+
+        return false;
     }
 
     /**
-     * Reset image back to its original size. Will snap back to original size
-     * if animation on reset is disabled via {@link #setAnimateOnReset(boolean)}.
+     * Returns whether touch movement is extrapolated to when it will be displayed.
+     *
+     * @return true if touch prediction is enabled
      */
-    public void reset() {
-        reset(animateOnReset);
+    public boolean getPredictTouch() {
+        return predictTouch;
     }
 
     /**
-     * Reset image back to its starting size. If {@code animate} is false, image
-     * will snap back to its original size.
+     * Set whether panning and zooming should follow where the fingers are predicted to be when the
+     * frame is displayed, rather than where they were last reported, based on how fast they have been
+     * moving. This hides some of the latency between touching and seeing the image move. Whatever a
+     * prediction gets wrong is taken back by the next touch event, so the image always ends up
+     * exactly where the fingers are. Default value is false.
      *
-     * @param animate animate the image back to its starting size
+     * @param predictTouch true to enable touch prediction
      */
-    public void reset(final boolean animate) {
-        if (animate) {
-            animateToStartMatrix();
-        } else {
-            setImageMatrix(startMatrix);
+    public void setPredictTouch(final boolean predictTouch) {
+        this.predictTouch = predictTouch;
+
+        if (predictTouch && touchPredictor == null) {
+            touchPredictor = new TouchPredictor();
+        } else if (touchPredictor != null) {
+            touchPredictor.reset();
         }
     }
 
     /**
-     * Animate the matrix back to its original position after the user stopped interacting with it.
+     * Whether bitmaps set with {@link #setImageBitmap(Bitmap)} or {@link #setImageDrawable(Drawable)}
+     * that are too large to draw, or larger than the memory budget, are downsampled before being displayed.
+     *
+     * @return true if the memory guard is enabled
      */
-    private void animateToStartMatrix() {
-        animateScaleAndTranslationToMatrix(startMatrix, RESET_DURATION);
+    public boolean isMemoryGuardEnabled() {
+        return memoryGuardEnabled;
     }
 
     /**
-     * Animate the scale and translation of the current matrix to the target
-     * matrix.
+     * Set whether bitmaps set with {@link #setImageBitmap(Bitmap)} or {@link #setImageDrawable(Drawable)}
+     * that are larger than the device can draw, or larger than {@link #getMaxBitmapBytes()}, are scaled
+     * down in the background to no more than the view needs at its max scale. Nothing is displayed until
+     * the scaled down copy is ready. The original bitmap is never recycled, as it's owned by the caller.
+     * Default is false.
      *
-     * @param targetMatrix the target matrix to animate values to
+     * @param memoryGuardEnabled true to downsample oversized bitmaps
      */
-    private void animateScaleAndTranslationToMatrix(final Matrix targetMatrix, final int duration) {
-
-        final float[] targetValues = new float[9];
-        targetMatrix.getValues(targetValues);
-
-        final Matrix beginMatrix = new Matrix(getImageMatrix());
-        beginMatrix.getValues(matrixValues);
-
-        //difference in current and original values
-        final float xsdiff = targetValues[Matrix.MSCALE_X] - matrixValues[Matrix.MSCALE_X];
-        final float ysdiff = targetValues[Matrix.MSCALE_Y] - matrixValues[Matrix.MSCALE_Y];
-        final float xtdiff = targetValues[Matrix.MTRANS_X] - matrixValues[Matrix.MTRANS_X];
-        final float ytdiff = targetValues[Matrix.MTRANS_Y] - matrixValues[Matrix.MTRANS_Y];
-
-        resetAnimator = ValueAnimator.ofFloat(0, 1f);
-        resetAnimator.addUpdateListener(new AnimatorUpdateListener() {
-
-            final Matrix activeMatrix = new Matrix(getImageMatrix());
-            final float[] values = new float[9];
-
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                float val = (Float) animation.getAnimatedValue();
-                activeMatrix.set(beginMatrix);
-                activeMatrix.getValues(values);
-                values[Matrix.MTRANS_X] = values[Matrix.MTRANS_X] + xtdiff * val;
-                values[Matrix.MTRANS_Y] = values[Matrix.MTRANS_Y] + ytdiff * val;
-                values[Matrix.MSCALE_X] = values[Matrix.MSCALE_X] + xsdiff * val;
-                values[Matrix.MSCALE_Y] = values[Matrix.MSCALE_Y] + ysdiff * val;
-                activeMatrix.setValues(values);
-                setImageMatrix(activeMatrix);
-            }
-        });
-
-        resetAnimator.addListener(new SimpleAnimatorListener() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                setImageMatrix(targetMatrix);
-            }
-        });
-
-        resetAnimator.setDuration(duration);
-        resetAnimator.start();
+    public void setMemoryGuardEnabled(final boolean memoryGuardEnabled) {
+        this.memoryGuardEnabled = memoryGuardEnabled;
     }
 
-    private void animateTranslationX() {
-        if (getCurrentDisplayedWidth() > getWidth()) {
-            //the left edge is too far to the interior
-            if (bounds.left > 0) {
-                animateMatrixIndex(Matrix.MTRANS_X, 0);
-            }
-            //the right edge is too far to the interior
-            else if (bounds.right < getWidth()) {
-                animateMatrixIndex(Matrix.MTRANS_X, bounds.left + getWidth() - bounds.right);
-            }
-        } else {
-            //left edge needs to be pulled in, and should be considered before the right edge
-            if (bounds.left < 0) {
-                animateMatrixIndex(Matrix.MTRANS_X, 0);
-            }
-            //right edge needs to be pulled in
-            else if (bounds.right > getWidth()) {
-                animateMatrixIndex(Matrix.MTRANS_X, bounds.left + getWidth() - bounds.right);
-            }
-        }
+    /**
+     * @return the most bytes a displayed bitmap may use when the memory guard is enabled
+     */
+    public long getMaxBitmapBytes() {
+        return maxBitmapBytes;
     }
 
-    private void animateTranslationY() {
-        if (getCurrentDisplayedHeight() > getHeight()) {
-            //the top edge is too far to the interior
-            if (bounds.top > 0) {
-                animateMatrixIndex(Matrix.MTRANS_Y, 0);
-            }
-            //the bottom edge is too far to the interior
-            else if (bounds.bottom < getHeight()) {
-                animateMatrixIndex(Matrix.MTRANS_Y, bounds.top + getHeight() - bounds.bottom);
-            }
-        } else {
-            //top needs to be pulled in, and needs to be considered before the bottom edge
-            if (bounds.top < 0) {
-                animateMatrixIndex(Matrix.MTRANS_Y, 0);
-            }
-            //bottom edge needs to be pulled in
-            else if (bounds.bottom > getHeight()) {
-                animateMatrixIndex(Matrix.MTRANS_Y, bounds.top + getHeight() - bounds.bottom);
-            }
+    /**
+     * Set the most bytes a displayed bitmap may use when the memory guard is enabled. By default this is
+     * a quarter of the maximum heap size, and never more than the largest bitmap a hardware canvas draws.
+     *
+     * @param maxBitmapBytes the memory budget in bytes
+     */
+    public void setMaxBitmapBytes(final long maxBitmapBytes) {
+        if (maxBitmapBytes <= 0) {
+            throw new IllegalArgumentException("maxBitmapBytes must be greater than 0");
         }
-    }
-
-    private void animateMatrixIndex(final int index, final float to) {
-        ValueAnimator animator = ValueAnimator.ofFloat(matrixValues[index], to);
-        animator.addUpdateListener(new AnimatorUpdateListener() {
 
-            final float[] values = new float[9];
-            Matrix current = new Matrix();
-
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                current.set(getImageMatrix());
-                current.getValues(values);
-                values[index] = (Float) animation.getAnimatedValue();
-                current.setValues(values);
-                setImageMatrix(current);
-            }
-        });
-        animator.setDuration(RESET_DURATION);
-        animator.start();
+        this.maxBitmapBytes = maxBitmapBytes;
     }
 
     /**
-     * Get the x distance to translate the current image.
+     * Set a listener to be notified when the memory guard displays a downsampled copy of a bitmap.
      *
-     * @param toX   the current x location of touch focus
-     * @param fromX the last x location of touch focus
-     * @return the distance to move the image,
-     * will restrict the translation to keep the image on screen.
+     * @param listener the listener, or null to remove it
      */
-    private float getXDistance(final float toX, final float fromX) {
-        float xdistance = toX - fromX;
+    public void setOnImageDownsampledListener(@Nullable final OnImageDownsampledListener listener) {
+        this.imageDownsampledListener = listener;
+    }
 
-        if (restrictBounds) {
-            xdistance = getRestrictedXDistance(xdistance);
-        }
+    /**
+     * Set a listener to receive performance measurements of each gesture, such as the time spent
+     * handling touch events, how long the following animation took, and how many frames were dropped.
+     * Measuring and reporting doesn't allocate, and nothing is measured while no listener is set.
+     *
+     * @param listener the listener to receive measurements, or null to stop measuring
+     */
+    public void setOnGestureMetricsListener(@Nullable final OnGestureMetricsListener listener) {
+        this.gestureMetricsListener = listener;
 
-        //prevents image from translating an infinite distance offscreen
-        if (bounds.right + xdistance < 0) {
-            xdistance = -bounds.right;
-        } else if (bounds.left + xdistance > getWidth()) {
-            xdistance = getWidth() - bounds.left;
+        if (listener == null) {
+            stopGestureMetrics();
         }
-
-        return xdistance;
     }
 
     /**
-     * Get the horizontal distance to translate the current image, but restrict
-     * it to the outer bounds of the {@link ImageView}. If the current
-     * image is smaller than the bounds, keep it within the current bounds.
-     * If it is larger, prevent its edges from translating farther inward
-     * from the outer edge.
+     * Set a listener to follow the transform of the image. It's told about changes to the image
+     * matrix at most once per frame, just before the frame is drawn, as well as when a gesture starts
+     * and ends, and when the image has settled after any animation that followed it. Nothing is
+     * allocated while following the image, so there's no need to poll {@link #getImageMatrix()}.
      *
-     * @param xdistance the current desired horizontal distance to translate
-     * @return the actual horizontal distance to translate with bounds restrictions
+     * @param listener the listener, or null to remove it
      */
-    private float getRestrictedXDistance(final float xdistance) {
-        float restrictedXDistance = xdistance;
-
-        if (getCurrentDisplayedWidth() >= getWidth()) {
-            if (bounds.left <= 0 && bounds.left + xdistance > 0 && !scaleDetector.isInProgress()) {
-                restrictedXDistance = -bounds.left;
-            } else if (bounds.right >= getWidth() && bounds.right + xdistance < getWidth() && !scaleDetector.isInProgress()) {
-                restrictedXDistance = getWidth() - bounds.right;
-            }
-        } else if (!scaleDetector.isInProgress()) {
-            if (bounds.left >= 0 && bounds.left + xdistance < 0) {
-                restrictedXDistance = -bounds.left;
-            } else if (bounds.right <= getWidth() && bounds.right + xdistance > getWidth()) {
-                restrictedXDistance = getWidth() - bounds.right;
-            }
+    public void setOnTransformChangeListener(@Nullable final OnTransformChangeListener listener) {
+        final boolean attached = ViewCompat.isAttachedToWindow(this);
+        if (attached && transformChangeListener == null && listener != null) {
+            getViewTreeObserver().addOnPreDrawListener(transformPreDrawListener);
+        } else if (attached && transformChangeListener != null && listener == null) {
+            getViewTreeObserver().removeOnPreDrawListener(transformPreDrawListener);
         }
 
-        return restrictedXDistance;
+        this.transformChangeListener = listener;
+        transformChanged = false;
     }
 
     /**
-     * Get the y distance to translate the current image.
+     * Set an overlay of markers to draw on top of the image, following it as it's zoomed and moved.
+     * Markers in the overlay that are tapped are reported to its {@link MarkerOverlay.OnMarkerClickListener}.
      *
-     * @param toY   the current y location of touch focus
-     * @param fromY the last y location of touch focus
-     * @return the distance to move the image,
-     * will restrict the translation to keep the image on screen.
+     * @param overlay the overlay, or null to remove it
      */
-    private float getYDistance(final float toY, final float fromY) {
-        float ydistance = toY - fromY;
-
-        if (restrictBounds) {
-            ydistance = getRestrictedYDistance(ydistance);
+    public void setMarkerOverlay(@Nullable final MarkerOverlay overlay) {
+        if (markerOverlay != null) {
+            markerOverlay.setView(null);
         }
 
-        //prevents image from translating an infinite distance offscreen
-        if (bounds.bottom + ydistance < 0) {
-            ydistance = -bounds.bottom;
-        } else if (bounds.top + ydistance > getHeight()) {
-            ydistance = getHeight() - bounds.top;
+        markerOverlay = overlay;
+        if (overlay != null) {
+            overlay.setView(this);
         }
 
-        return ydistance;
+        invalidate();
     }
 
     /**
-     * Get the vertical distance to translate the current image, but restrict
-     * it to the outer bounds of the {@link ImageView}. If the current
-     * image is smaller than the bounds, keep it within the current bounds.
-     * If it is larger, prevent its edges from translating farther inward
-     * from the outer edge.
+     * @return the overlay of markers drawn on top of the image, or null if there is none
+     */
+    @Nullable
+    public MarkerOverlay getMarkerOverlay() {
+        return markerOverlay;
+    }
+
+    /**
+     * Set a recorder to capture every touch event this view receives, so a gesture can be
+     * replayed later with {@link GestureTrace}.
+     *
+     * @param recorder the recorder, or null to stop recording
+     */
+    public void setGestureRecorder(@Nullable final GestureRecorder recorder) {
+        this.gestureRecorder = recorder;
+    }
+
+    /**
+     * @return the recorder capturing touch events, or null if there is none
+     */
+    @Nullable
+    public GestureRecorder getGestureRecorder() {
+        return gestureRecorder;
+    }
+
+    /**
+     * Get the current scale factor of the image, in relation to its starting size.
+     *
+     * @return the current scale factor
+     */
+    public float getCurrentScaleFactor() {
+        return currentScaleFactor;
+    }
+
+    /**
+     * Get the cache used to keep decoded bitmaps for reuse, if any.
+     *
+     * @return the bitmap cache, or null if bitmaps are not cached
+     */
+    @Nullable
+    public BitmapCache getBitmapCache() {
+        return bitmapCache;
+    }
+
+    /**
+     * Set a cache to keep bitmaps decoded by {@link #setImageURI(Uri)}, {@link #setImageResource(int)}
+     * and tiled images in, so displaying the same image again doesn't decode it again. Use
+     * {@link BitmapCache#getInstance()} to share bitmaps between all ZoomageViews, such as the pages
+     * of a view pager. Default value is null, in which case nothing is cached.
+     *
+     * @param bitmapCache the cache to use, or null to disable caching
+     */
+    public void setBitmapCache(@Nullable final BitmapCache bitmapCache) {
+        this.bitmapCache = bitmapCache;
+    }
+
+    /**
+     * Get the bitmap config used when decoding images asynchronously.
+     *
+     * @return the bitmap config
+     */
+    public Bitmap.Config getDecodeConfig() {
+        return decodeConfig;
+    }
+
+    /**
+     * Set the bitmap config used by {@link #loadImageURI(Uri)} and {@link #loadImageResource(int)}.
+     * {@link Bitmap.Config#RGB_565} halves memory use for opaque images, and {@link Bitmap.Config#HARDWARE}
+     * keeps the image in graphics memory only, on API 26 and above. Default value is {@link Bitmap.Config#ARGB_8888}.
+     *
+     * @param decodeConfig the bitmap config to decode with
+     */
+    public void setDecodeConfig(final Bitmap.Config decodeConfig) {
+        this.decodeConfig = decodeConfig;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setScaleType(@Nullable ScaleType scaleType) {
+        if (scaleType != null) {
+            super.setScaleType(scaleType);
+            startScaleType = scaleType;
+            startValuesSet = false;
+        }
+    }
+
+    /**
+     * Set enabled state of the view. Note that this will reset the image's
+     * {@link android.widget.ImageView.ScaleType} to its pre-zoom state.
+     *
+     * @param enabled enabled state
+     */
+    @Override
+    public void setEnabled(final boolean enabled) {
+        super.setEnabled(enabled);
+
+        if (!enabled) {
+            setScaleType(startScaleType);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setImageResource(int resId) {
+        final Drawable previous = getDrawable();
+        final BitmapCache.Key key = bitmapCache != null ? new BitmapCache.Key(getImageViewSource(getResourceSource(resId)), 1) : null;
+        final Bitmap cached = key != null ? bitmapCache.get(key) : null;
+
+        if (cached != null) {
+            super.setImageDrawable(new BitmapDrawable(getResources(), cached));
+        } else {
+            super.setImageResource(resId);
+            cacheDisplayedBitmap(key);
+        }
+
+        onImageChanged(previous);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setImageDrawable(@Nullable Drawable drawable) {
+        final Drawable previous = getDrawable();
+        final boolean oversized = isOversized(drawable);
+        if (drawable instanceof TiledImageDrawable) {
+            ((TiledImageDrawable) drawable).setDecodeOwner(decodeOwner);
+        }
+
+        super.setImageDrawable(oversized ? null : drawable);
+        onImageChanged(previous);
+
+        if (oversized) {
+            downsample((BitmapDrawable) drawable);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setImageBitmap(Bitmap bm) {
+        if (memoryGuardEnabled && bm != null) {
+            //let setImageDrawable guard it
+            setImageDrawable(new BitmapDrawable(getResources(), bm));
+            return;
+        }
+
+        final Drawable previous = getDrawable();
+        super.setImageBitmap(bm);
+        onImageChanged(previous);
+    }
+
+    /**
+     * Whether the memory guard should downsample a drawable before it's displayed, because its
+     * bitmap is larger than the device can draw or larger than the memory budget. Images loaded
+     * by this view are already decoded at the size they need, so are never considered oversized.
+     *
+     * @param drawable the drawable being set
+     * @return true if it should be downsampled
+     */
+    private boolean isOversized(@Nullable final Drawable drawable) {
+        if (!memoryGuardEnabled || !(drawable instanceof BitmapDrawable) || drawable instanceof SampledBitmapDrawable) {
+            return false;
+        }
+
+        final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        return bitmap != null && !bitmap.isRecycled()
+                && (Math.max(bitmap.getWidth(), bitmap.getHeight()) > maxBitmapDimension
+                || bitmap.getByteCount() > maxBitmapBytes);
+    }
+
+    /**
+     * Scale an oversized bitmap down in the background to the detail the view needs at its max
+     * scale, within the size the device can draw and the memory budget, and display the result.
+     *
+     * @param drawable the drawable of the oversized bitmap
+     */
+    private void downsample(final BitmapDrawable drawable) {
+        final Bitmap bitmap = drawable.getBitmap();
+        final int bitmapWidth = bitmap.getWidth();
+        final int bitmapHeight = bitmap.getHeight();
+
+        //use the size of the screen if the view hasn't been measured yet
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        final int width = getWidth() > 0 ? getWidth() : metrics.widthPixels;
+        final int height = getHeight() > 0 ? getHeight() : metrics.heightPixels;
+
+        float scale = Math.min(1f, ImageLoader.calculateStartScale(startScaleType, bitmapWidth, bitmapHeight, width, height)
+                * transform.getMaxScale());
+        scale = Math.min(scale, maxBitmapDimension / (float) Math.max(bitmapWidth, bitmapHeight));
+        scale = Math.min(scale, (float) Math.sqrt(maxBitmapBytes / (double) bitmap.getByteCount()));
+
+        downsampler = new BitmapDownsampler(getResources(), bitmap,
+                drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight(),
+                Math.max(1, (int) (bitmapWidth * scale)), Math.max(1, (int) (bitmapHeight * scale)),
+                downsampledCallback).start(decodeOwner);
+    }
+
+    private final BitmapDownsampler.Callback downsampledCallback = new BitmapDownsampler.Callback() {
+        @Override
+        public void onBitmapDownsampled(final BitmapDownsampler request, final SampledBitmapDrawable drawable) {
+            if (request != downsampler) {
+                return;
+            }
+
+            downsampler = null;
+            setImageDrawable(drawable);
+
+            if (imageDownsampledListener != null) {
+                final Bitmap original = request.getBitmap();
+                final Bitmap scaled = drawable.getBitmap();
+                imageDownsampledListener.onImageDownsampled(original.getWidth(), original.getHeight(),
+                        scaled.getWidth(), scaled.getHeight(), original.getByteCount() - scaled.getByteCount());
+            }
+        }
+
+        @Override
+        public void onBitmapDownsampleFailed(final BitmapDownsampler request) {
+            if (request != downsampler) {
+                return;
+            }
+
+            downsampler = null;
+
+            //the original is shown as it is if the device can draw it, being only over the memory budget,
+            //and otherwise the view stays empty rather than crash drawing it
+            final Bitmap original = request.getBitmap();
+            if (!original.isRecycled() && Math.max(original.getWidth(), original.getHeight()) <= maxBitmapDimension) {
+                final Drawable previous = getDrawable();
+                ZoomageView.super.setImageDrawable(new BitmapDrawable(getResources(), original));
+                onImageChanged(previous);
+            }
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setImageURI(@Nullable Uri uri) {
+        final Drawable previous = getDrawable();
+        final BitmapCache.Key key = bitmapCache != null && uri != null ? new BitmapCache.Key(getImageViewSource(uri.toString()), 1) : null;
+        final Bitmap cached = key != null ? bitmapCache.get(key) : null;
+
+        if (cached != null) {
+            super.setImageDrawable(new BitmapDrawable(getResources(), cached));
+        } else {
+            super.setImageURI(uri);
+            cacheDisplayedBitmap(key);
+        }
+
+        onImageChanged(previous);
+    }
+
+    /**
+     * Add the bitmap of the currently displayed drawable to the bitmap cache, if
+     * caching is enabled and the drawable is backed by a bitmap.
+     *
+     * @param key the key to cache the bitmap with, or null if caching is disabled
+     */
+    private void cacheDisplayedBitmap(@Nullable final BitmapCache.Key key) {
+        if (key != null && getDrawable() instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) getDrawable()).getBitmap();
+            if (bitmap != null) {
+                bitmapCache.put(key, bitmap);
+            }
+        }
+    }
+
+    private static String getResourceSource(final int resId) {
+        return "resource:" + resId;
+    }
+
+    /**
+     * Get the cache source of an image decoded by ImageView itself, which scales resources for the
+     * screen density, so it's never mistaken for the same image decoded by an {@link ImageLoader}.
+     */
+    private static String getImageViewSource(final String source) {
+        return "imageview:" + source;
+    }
+
+    /**
+     * Display a very large image from the given uri using tiled rendering. Only the parts of the
+     * image that are visible are decoded, at a resolution matching the current zoom level, so memory
+     * use depends on the size of the screen rather than the size of the image. The image is opened
+     * in the background and displayed once it is ready.
+     *
+     * The image must be in a format supported by {@link BitmapRegionDecoder}, such as JPEG, PNG or WebP.
+     *
+     * @param uri the uri of the image to display
+     */
+    public void setTiledImageURI(@Nullable final Uri uri) {
+        setImageDrawable(null);
+
+        if (uri != null) {
+            final ContentResolver resolver = getContext().getContentResolver();
+            openTiledImage(new RegionDecoderImageSource(uri.toString(), new StreamOpener() {
+                @Override
+                public InputStream open() throws IOException {
+                    final InputStream stream = resolver.openInputStream(uri);
+                    if (stream == null) {
+                        throw new IOException("Unable to open " + uri);
+                    }
+                    return stream;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Display a very large image from the given raw or drawable resource using tiled rendering.
+     * See {@link #setTiledImageURI(Uri)}.
+     *
+     * @param resId the resource id of the image to display
+     */
+    public void setTiledImageResource(@DrawableRes final int resId) {
+        setImageDrawable(null);
+
+        final Resources resources = getResources();
+        openTiledImage(new RegionDecoderImageSource(getResourceSource(resId), new StreamOpener() {
+            @Override
+            public InputStream open() {
+                return resources.openRawResource(resId);
+            }
+        }));
+    }
+
+    /**
+     * Display a very large image from the given source using tiled rendering, such as a pre-tiled
+     * pyramid read by a {@link DziImageSource}. Only the regions of the image that are visible are
+     * decoded, at a resolution matching the current zoom level. The source is opened in the background,
+     * the image is displayed once it is ready, and the source is recycled once the image is replaced.
+     * See {@link #setTiledImageURI(Uri)}.
+     *
+     * @param source the image to display, which shouldn't be shared with another view
+     */
+    public void setImageSource(@Nullable final ImageSource source) {
+        setImageDrawable(null);
+
+        if (source != null) {
+            openTiledImage(source);
+        }
+    }
+
+    /**
+     * Asynchronously load the image at the given uri. The image is decoded off the main thread,
+     * using the bitmap config set by {@link #setDecodeConfig(Bitmap.Config)}, and downsampled to
+     * no more than the resolution needed to stay sharp at the view's maximum scale. Loading is
+     * cancelled if another image is set or the view is detached, and resumes once it is reattached.
+     *
+     * @param uri the uri of the image to load
+     */
+    public void loadImageURI(@Nullable final Uri uri) {
+        setImageDrawable(null);
+
+        if (uri != null) {
+            final ContentResolver resolver = getContext().getContentResolver();
+            loadImage(uri.toString(), new StreamOpener() {
+                @Override
+                public InputStream open() throws IOException {
+                    final InputStream stream = resolver.openInputStream(uri);
+                    if (stream == null) {
+                        throw new IOException("Unable to open " + uri);
+                    }
+                    return stream;
+                }
+            });
+        }
+    }
+
+    /**
+     * Asynchronously load the image of the given raw or drawable resource. The resource is decoded
+     * at its original size without density scaling. See {@link #loadImageURI(Uri)}.
+     *
+     * @param resId the resource id of the image to load
+     */
+    public void loadImageResource(@DrawableRes final int resId) {
+        setImageDrawable(null);
+
+        final Resources resources = getResources();
+        loadImage(getResourceSource(resId), new StreamOpener() {
+            @Override
+            public InputStream open() {
+                return resources.openRawResource(resId);
+            }
+        });
+    }
+
+    private void loadImage(final String source, final StreamOpener opener) {
+        //use the size of the screen if the view hasn't been measured yet
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        final int width = getWidth() > 0 ? getWidth() : metrics.widthPixels;
+        final int height = getHeight() > 0 ? getHeight() : metrics.heightPixels;
+
+        final ImageLoader.Request request = new ImageLoader.Request(source, opener, getResources(), width, height,
+                startScaleType, progressiveLoading ? 1f : transform.getMaxScale(), decodeConfig, bitmapCache, imageLoadedCallback);
+
+        //requests made while detached start once the view is attached
+        pendingLoad = getWindowToken() != null ? request.start(decodeOwner) : request;
+    }
+
+    private final ImageLoader.Callback imageLoadedCallback = new ImageLoader.Callback() {
+        @Override
+        public void onImageLoaded(final ImageLoader.Request request, final SampledBitmapDrawable drawable) {
+            if (request == pendingLoad) {
+                pendingLoad = null;
+                setImageDrawable(drawable);
+                loadedRequest = request;
+            }
+        }
+    };
+
+    private final ImageLoader.Callback upgradeLoadedCallback = new ImageLoader.Callback() {
+        @Override
+        public void onImageLoaded(final ImageLoader.Request request, final SampledBitmapDrawable drawable) {
+            if (request == upgradeLoad && getDrawable() instanceof SampledBitmapDrawable) {
+                upgradeLoad = null;
+                ((SampledBitmapDrawable) getDrawable()).setUpgrade(drawable.getBitmap(), drawable.getSampleSize(),
+                        !request.usesCache());
+            }
+        }
+    };
+
+    /**
+     * If progressive loading is enabled and the image is displayed at a scale that needs more detail
+     * than its current bitmap has, decode a sharper version of it in the background.
+     */
+    private void loadSharperImage() {
+        if (!progressiveLoading || loadedRequest == null || !(getDrawable() instanceof SampledBitmapDrawable)) {
+            return;
+        }
+
+        final int sampleSize = TiledImageDrawable.calculateSampleSize(matrixValues[Matrix.MSCALE_X]);
+        if (sampleSize >= ((SampledBitmapDrawable) getDrawable()).getDisplayedSampleSize()) {
+            return;
+        }
+
+        //a sharp enough version is already on its way
+        if (upgradeLoad != null && upgradeLoad.getSampleSize() <= sampleSize) {
+            return;
+        }
+
+        cancelSharperImage();
+        upgradeLoad = loadedRequest.withSampleSize(sampleSize, upgradeLoadedCallback).start(decodeOwner);
+    }
+
+    /**
+     * Cancel loading of a sharper image.
+     */
+    private void cancelSharperImage() {
+        if (upgradeLoad != null) {
+            upgradeLoad.cancel();
+            upgradeLoad = null;
+        }
+    }
+
+    /**
+     * Release the sharper version of a sampled image once the image is displayed at a scale its
+     * base bitmap has enough detail for, such as after being reset.
+     */
+    private void releaseUnneededUpgrade() {
+        if (!(getDrawable() instanceof SampledBitmapDrawable)) {
+            return;
+        }
+
+        final SampledBitmapDrawable drawable = (SampledBitmapDrawable) getDrawable();
+        getImageMatrix().getValues(drawMatrixValues);
+        if (TiledImageDrawable.calculateSampleSize(drawMatrixValues[Matrix.MSCALE_X]) >= drawable.getSampleSize()) {
+            drawable.releaseUpgrade();
+        }
+    }
+
+    private void openTiledImage(final ImageSource source) {
+        final int generation = imageGeneration;
+        final BitmapCache cache = bitmapCache;
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        final int maxBaseDimension = Math.max(metrics.widthPixels, metrics.heightPixels);
+
+        DecodeScheduler.submit(decodeOwner, new Runnable() {
+            @Override
+            public void run() {
+                TiledImageDrawable opened = null;
+                try {
+                    opened = TiledImageDrawable.create(source, cache, maxBaseDimension);
+                } catch (IOException | RuntimeException e) {
+                    //a bad uri, a denied permission or an unsupported format leaves the view empty
+                    Log.w(TAG, "Unable to open tiled image", e);
+                    source.recycle();
+                }
+
+                final TiledImageDrawable drawable = opened;
+                ImageLoader.MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (drawable == null) {
+                            return;
+                        }
+
+                        if (generation == imageGeneration) {
+                            setImageDrawable(drawable);
+                        } else {
+                            drawable.recycle();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Called after any change of image, to release a previous tiled image and reset
+     * the scale type back to its starting state.
+     *
+     * @param previous the drawable that was displayed before the change
+     */
+    private void onImageChanged(@Nullable final Drawable previous) {
+        imageGeneration++;
+        discardPendingTransform();
+        stopFling();
+        stopGestureMetrics();
+        gestureLayerActive = false;
+        contentNodeDirty = true;
+
+        if (pendingLoad != null) {
+            pendingLoad.cancel();
+            pendingLoad = null;
+        }
+
+        loadedRequest = null;
+        releasedRequest = null;
+        cancelRestoreImage();
+
+        if (downsampler != null) {
+            downsampler.cancel();
+            downsampler = null;
+        }
+
+        restoreRenderQuality();
+        releaseMipmaps();
+        cancelSharperImage();
+        if (previous instanceof SampledBitmapDrawable && previous != getDrawable()) {
+            ((SampledBitmapDrawable) previous).releaseUpgrade();
+        }
+
+        if (previous instanceof TiledImageDrawable && previous != getDrawable()) {
+            ((TiledImageDrawable) previous).recycle();
+        }
+
+        setScaleType(startScaleType);
+
+        //the new image is laid out without going through setImageMatrix
+        transformChanged = transformChangeListener != null;
+    }
+
+    @Override
+    protected void onLayout(final boolean changed, final int left, final int top, final int right, final int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+
+        //a new size lays the image out again, which moves it without going through setImageMatrix
+        if (changed) {
+            transformChanged = transformChangeListener != null;
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        MemoryTrimmer.register(getContext(), this);
+        updateShownState(getWindowVisibility());
+
+        if (pendingLoad != null) {
+            pendingLoad = pendingLoad.restart();
+        }
+
+        if (transformChangeListener != null) {
+            getViewTreeObserver().addOnPreDrawListener(transformPreDrawListener);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel();
+        }
+
+        //anything still decoding for this view waits behind every attached view
+        DecodeScheduler.setPriority(decodeOwner, DecodeScheduler.PRIORITY_DETACHED);
+        if (getDrawable() instanceof TiledImageDrawable) {
+            ((TiledImageDrawable) getDrawable()).cancelPendingTiles();
+        }
+
+        cancelSharperImage();
+        cancelRestoreImage();
+        commitPendingTransform();
+        discardPendingTransform();
+        stopFling();
+        finishTransformAnimation();
+        restoreRenderQuality();
+        endGestureLayer();
+        stopGestureMetrics();
+
+        if (nestedScrollingHelper != null) {
+            nestedScrollingHelper.onDetachedFromWindow();
+        }
+
+        if (transformChangeListener != null) {
+            getViewTreeObserver().removeOnPreDrawListener(transformPreDrawListener);
+            transformChanged = false;
+        }
+
+        if (velocityTracker != null) {
+            velocityTracker.recycle();
+            velocityTracker = null;
+        }
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull final View changedView, final int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateShownState(getWindowVisibility());
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(final int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateShownState(visibility);
+    }
+
+    /**
+     * Order this view's decoding behind that of other views while it's hidden, and reload
+     * an image released under memory pressure once it's shown again.
+     *
+     * @param windowVisibility the visibility of the window the view is in
+     */
+    private void updateShownState(final int windowVisibility) {
+        //visibility can change while the view is being constructed, before its fields are set
+        if (decodeOwner == null || getWindowToken() == null) {
+            return;
+        }
+
+        final boolean shown = isDisplayed(windowVisibility);
+        DecodeScheduler.setPriority(decodeOwner, shown ? DecodeScheduler.PRIORITY_VISIBLE : DecodeScheduler.PRIORITY_HIDDEN);
+
+        if (shown) {
+            restoreImage();
+        }
+    }
+
+    private boolean isDisplayed(final int windowVisibility) {
+        return getWindowToken() != null && windowVisibility == VISIBLE && isShown();
+    }
+
+    /**
+     * Release what can be recreated later in response to memory pressure. A hidden view releases
+     * its sharper image and tiles, and an image it loaded itself, which is reloaded with the same
+     * matrix once the view is shown again. A shown view only releases its sharper image, once
+     * memory is critically low. Called by {@link MemoryTrimmer}.
+     *
+     * @param level the trim level, as passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    void trimMemory(final int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return;
+        }
+
+        if (bitmapCache != null) {
+            bitmapCache.trimMemory(level);
+        }
+
+        final boolean shown = isDisplayed(getWindowVisibility());
+        if (!shown) {
+            stopFling();
+            finishTransformAnimation();
+            restoreRenderQuality();
+        }
+
+        if (!shown || level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cancelSharperImage();
+            if (getDrawable() instanceof SampledBitmapDrawable) {
+                ((SampledBitmapDrawable) getDrawable()).releaseUpgrade();
+            }
+        }
+
+        if (!shown) {
+            releaseMipmaps();
+
+            if (getDrawable() instanceof TiledImageDrawable) {
+                ((TiledImageDrawable) getDrawable()).trimMemory();
+            } else {
+                releaseImage();
+            }
+        }
+    }
+
+    /**
+     * Release an image loaded with {@link #loadImageURI(Uri)} or {@link #loadImageResource(int)},
+     * remembering its matrix and how to decode it again. Images set directly are left alone, as
+     * they can't be reloaded.
+     */
+    private void releaseImage() {
+        if (loadedRequest == null || !(getDrawable() instanceof SampledBitmapDrawable)) {
+            return;
+        }
+
+        if (releasedMatrix == null) {
+            releasedMatrix = new Matrix();
+        }
+        releasedMatrix.set(getImageMatrix());
+        releasedSampleSize = ((SampledBitmapDrawable) getDrawable()).getSampleSize();
+        releasedRequest = loadedRequest;
+        loadedRequest = null;
+
+        //bypasses onImageChanged, so the scale type and start values stay as they are
+        super.setImageDrawable(null);
+    }
+
+    /**
+     * Decode an image released by {@link #releaseImage()} again, at the same sample size it was displayed at.
+     */
+    private void restoreImage() {
+        if (releasedRequest != null && restoreLoad == null) {
+            restoreLoad = releasedRequest.withSampleSize(releasedSampleSize, imageRestoredCallback).start(decodeOwner);
+        }
+    }
+
+    private void cancelRestoreImage() {
+        if (restoreLoad != null) {
+            restoreLoad.cancel();
+            restoreLoad = null;
+        }
+    }
+
+    private final ImageLoader.Callback imageRestoredCallback = new ImageLoader.Callback() {
+        @Override
+        public void onImageLoaded(final ImageLoader.Request request, final SampledBitmapDrawable drawable) {
+            if (request != restoreLoad) {
+                return;
+            }
+
+            restoreLoad = null;
+            loadedRequest = releasedRequest;
+            releasedRequest = null;
+
+            ZoomageView.super.setImageDrawable(drawable);
+            if (getScaleType() == ScaleType.MATRIX) {
+                setImageMatrix(releasedMatrix);
+            }
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        if (gestureLayerActive) {
+            layerMatrix.set(matrix);
+            invalidate();
+        } else {
+            super.setImageMatrix(matrix);
+        }
+
+        transformChanged = transformChangeListener != null;
+    }
+
+
+    /**
+     * Tell the transform listener about the current image matrix, if it changed since the listener was last told.
+     */
+    private void dispatchTransformChanged() {
+        if (!transformChanged) {
+            return;
+        }
+
+        transformChanged = false;
+        getImageMatrix().getValues(transformChangeValues);
+        transformChangeListener.onTransformChanged(transformChangeValues[Matrix.MSCALE_X],
+                transformChangeValues[Matrix.MTRANS_X], transformChangeValues[Matrix.MTRANS_Y]);
+    }
+
+    private final ViewTreeObserver.OnPreDrawListener transformPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            dispatchTransformChanged();
+            return true;
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Matrix getImageMatrix() {
+        return gestureLayerActive ? layerMatrix : super.getImageMatrix();
+    }
+
+    /**
+     * Bring the cached inverse of the image matrix up to date, if the image matrix has changed since it was computed.
+     *
+     * @return true if the image matrix can be inverted
+     */
+    private boolean updateInverseImageMatrix() {
+        final Matrix imageMatrix = getImageMatrix();
+
+        if (inverseImageMatrix == null) {
+            inverseImageMatrix = new Matrix();
+            invertedImageMatrix = new Matrix();
+        }
+
+        if (!inverseImageMatrixComputed || !invertedImageMatrix.equals(imageMatrix)) {
+            invertedImageMatrix.set(imageMatrix);
+            imageMatrixInvertible = imageMatrix.invert(inverseImageMatrix);
+            inverseImageMatrixComputed = true;
+        }
+
+        return imageMatrixInvertible;
+    }
+
+    /**
+     * Map points from the coordinates of this view, such as those of a touch event, to the
+     * drawable intrinsic coordinates of the image, in place. The inverse of the image matrix is
+     * cached and only recomputed after the matrix changes. Mapping doesn't allocate, except while
+     * the image is drawn untransformed, when ImageView hands out a new identity image matrix.
+     *
+     * @param points the x and y coordinates of the points, one after the other
+     * @return true if the points were mapped, false if the image is scaled to nothing
+     */
+    public boolean viewToImage(final float[] points) {
+        return viewToImage(points, 0, points, 0, points.length / 2);
+    }
+
+    /**
+     * Map a range of points from the coordinates of this view to the drawable intrinsic coordinates of the image.
+     *
+     * @param dst        the array to write the mapped points to, which can be the same as src
+     * @param dstIndex   the index of the first x coordinate to write
+     * @param src        the x and y coordinates of the points to map, one after the other
+     * @param srcIndex   the index of the first x coordinate to read
+     * @param pointCount the number of points to map
+     * @return true if the points were mapped, false if the image is scaled to nothing
+     */
+    public boolean viewToImage(final float[] dst, final int dstIndex, final float[] src, final int srcIndex,
+                               final int pointCount) {
+        if (!updateInverseImageMatrix()) {
+            return false;
+        }
+
+        //the image matrix applies inside the padding
+        for (int i = 0; i < pointCount; i++) {
+            dst[dstIndex + i * 2] = src[srcIndex + i * 2] - getPaddingLeft();
+            dst[dstIndex + i * 2 + 1] = src[srcIndex + i * 2 + 1] - getPaddingTop();
+        }
+
+        inverseImageMatrix.mapPoints(dst, dstIndex, dst, dstIndex, pointCount);
+        return true;
+    }
+
+    /**
+     * Map a point from the coordinates of this view to the drawable intrinsic coordinates of the image, in place.
+     *
+     * @param point the point to map
+     * @return true if the point was mapped, false if the image is scaled to nothing
+     */
+    public boolean viewToImage(final PointF point) {
+        if (!updateInverseImageMatrix()) {
+            return false;
+        }
+
+        mappedPoint[0] = point.x - getPaddingLeft();
+        mappedPoint[1] = point.y - getPaddingTop();
+        inverseImageMatrix.mapPoints(mappedPoint);
+        point.set(mappedPoint[0], mappedPoint[1]);
+        return true;
+    }
+
+    /**
+     * Map a rectangle from the coordinates of this view to the drawable intrinsic coordinates of the image, in place.
+     *
+     * @param rect the rectangle to map
+     * @return true if the rectangle was mapped, false if the image is scaled to nothing
+     */
+    public boolean viewToImage(final RectF rect) {
+        if (!updateInverseImageMatrix()) {
+            return false;
+        }
+
+        rect.offset(-getPaddingLeft(), -getPaddingTop());
+        inverseImageMatrix.mapRect(rect);
+        return true;
+    }
+
+    /**
+     * Map points from the drawable intrinsic coordinates of the image to the coordinates of this view, in place.
+     *
+     * @param points the x and y coordinates of the points, one after the other
+     */
+    public void imageToView(final float[] points) {
+        imageToView(points, 0, points, 0, points.length / 2);
+    }
+
+    /**
+     * Map a range of points from the drawable intrinsic coordinates of the image to the coordinates of this view.
+     *
+     * @param dst        the array to write the mapped points to, which can be the same as src
+     * @param dstIndex   the index of the first x coordinate to write
+     * @param src        the x and y coordinates of the points to map, one after the other
+     * @param srcIndex   the index of the first x coordinate to read
+     * @param pointCount the number of points to map
+     */
+    public void imageToView(final float[] dst, final int dstIndex, final float[] src, final int srcIndex,
+                            final int pointCount) {
+        getImageMatrix().mapPoints(dst, dstIndex, src, srcIndex, pointCount);
+
+        for (int i = 0; i < pointCount; i++) {
+            dst[dstIndex + i * 2] += getPaddingLeft();
+            dst[dstIndex + i * 2 + 1] += getPaddingTop();
+        }
+    }
+
+    /**
+     * Map a point from the drawable intrinsic coordinates of the image to the coordinates of this view, in place.
+     *
+     * @param point the point to map
+     */
+    public void imageToView(final PointF point) {
+        mappedPoint[0] = point.x;
+        mappedPoint[1] = point.y;
+        getImageMatrix().mapPoints(mappedPoint);
+        point.set(mappedPoint[0] + getPaddingLeft(), mappedPoint[1] + getPaddingTop());
+    }
+
+    /**
+     * Map a rectangle from the drawable intrinsic coordinates of the image to the coordinates of this view, in place.
+     *
+     * @param rect the rectangle to map
+     */
+    public void imageToView(final RectF rect) {
+        getImageMatrix().mapRect(rect);
+        rect.offset(getPaddingLeft(), getPaddingTop());
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable dr) {
+        if (dr == getDrawable()) {
+            contentNodeDirty = true;
+        }
+
+        super.invalidateDrawable(dr);
+    }
+
+    /**
+     * Start drawing the image from a cached display list, if the gesture layer is enabled and supported.
+     */
+    private void beginGestureLayer() {
+        if (gestureLayerEnabled && !gestureLayerActive && getDrawable() != null
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && isHardwareAccelerated()) {
+            if (layerMatrix == null) {
+                layerMatrix = new Matrix();
+            }
+
+            layerMatrix.set(getImageMatrix());
+            gestureLayerActive = true;
+        }
+    }
+
+    /**
+     * Stop drawing from the cached display list, and commit the layer's transform to the image matrix.
+     */
+    private void endGestureLayer() {
+        if (gestureLayerActive) {
+            gestureLayerActive = false;
+            super.setImageMatrix(layerMatrix);
+        }
+    }
+
+    /**
+     * Called once the image has stopped moving after a gesture, when any reset, center
+     * or fling that followed it has finished.
+     */
+    private void onTransformSettled() {
+        endGestureLayer();
+        restoreRenderQuality();
+        releaseUnneededUpgrade();
+        reportGestureMetrics();
+
+        if (transformChangeListener != null) {
+            dispatchTransformChanged();
+            transformChangeListener.onTransformSettled();
+        }
+    }
+
+    /**
+     * Called when the last finger is lifted, or a double tap is handled.
+     */
+    private void onGestureReleased() {
+        gestureReleaseNanos = System.nanoTime();
+
+        if (transformChangeListener != null) {
+            transformChangeListener.onGestureEnd();
+        }
+
+        if (!isAnimating()) {
+            onTransformSettled();
+        }
+    }
+
+    /**
+     * Start measuring a new gesture, reporting the previous one first if it never settled.
+     */
+    private void startGestureMetrics() {
+        if (gestureMetricsListener == null) {
+            return;
+        }
+
+        reportGestureMetrics();
+
+        if (gestureMetrics == null) {
+            gestureMetrics = new GestureMetrics();
+        }
+
+        gestureMetrics.reset(getFrameIntervalNanos());
+        gestureStartNanos = System.nanoTime();
+        gestureReleaseNanos = 0;
+        gestureMetricsActive = true;
+        Choreographer.getInstance().postFrameCallback(metricsFrameCallback);
+    }
+
+    /**
+     * Get the time between frames of the display the view is on, assuming 60Hz if it isn't known.
+     */
+    private long getFrameIntervalNanos() {
+        float refreshRate = 60f;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            final Display display = getDisplay();
+            if (display != null && display.getRefreshRate() > 0) {
+                refreshRate = display.getRefreshRate();
+            }
+        }
+
+        return (long) (1000000000L / refreshRate);
+    }
+
+    /**
+     * Finish measuring the current gesture, if any, and report it to the listener.
+     */
+    private void reportGestureMetrics() {
+        if (!gestureMetricsActive) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final long release = gestureReleaseNanos > 0 ? gestureReleaseNanos : now;
+        gestureMetrics.setDurations(release - gestureStartNanos, now - release);
+
+        getDecodedSize(getDrawable(), decodedSize);
+        getImageMatrix().getValues(matrixValues);
+        gestureMetrics.setImageSizes(decodedSize.x, decodedSize.y, getCurrentDisplayedWidth(), getCurrentDisplayedHeight());
+
+        stopGestureMetrics();
+
+        if (gestureMetricsListener != null) {
+            gestureMetricsListener.onGestureMetrics(gestureMetrics);
+        }
+    }
+
+    /**
+     * Get the size of the pixels currently decoded for the image, which for a sampled or tiled image is
+     * the full image at the sample size it's displayed at.
+     *
+     * @param drawable the image
+     * @param outSize  set to the decoded width and height, or zero if there is no image
+     */
+    private static void getDecodedSize(@Nullable final Drawable drawable, final Point outSize) {
+        int decodedWidth = 0;
+        int decodedHeight = 0;
+        if (drawable instanceof SampledBitmapDrawable) {
+            final int sampleSize = ((SampledBitmapDrawable) drawable).getDisplayedSampleSize();
+            decodedWidth = drawable.getIntrinsicWidth() / sampleSize;
+            decodedHeight = drawable.getIntrinsicHeight() / sampleSize;
+        } else if (drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() != null) {
+            decodedWidth = ((BitmapDrawable) drawable).getBitmap().getWidth();
+            decodedHeight = ((BitmapDrawable) drawable).getBitmap().getHeight();
+        } else if (drawable instanceof TiledImageDrawable) {
+            final int sampleSize = ((TiledImageDrawable) drawable).getSampleSize();
+            decodedWidth = drawable.getIntrinsicWidth() / sampleSize;
+            decodedHeight = drawable.getIntrinsicHeight() / sampleSize;
+        } else if (drawable != null) {
+            decodedWidth = drawable.getIntrinsicWidth();
+            decodedHeight = drawable.getIntrinsicHeight();
+        }
+
+        outSize.set(decodedWidth, decodedHeight);
+    }
+
+    private void stopGestureMetrics() {
+        if (gestureMetricsActive) {
+            gestureMetricsActive = false;
+            Choreographer.getInstance().removeFrameCallback(metricsFrameCallback);
+        }
+    }
+
+    private final Choreographer.FrameCallback metricsFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (gestureMetricsActive) {
+                gestureMetrics.onFrame(frameTimeNanos);
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (!maxBitmapDimensionKnown && canvas.isHardwareAccelerated()) {
+            maxBitmapDimensionKnown = true;
+            maxBitmapDimension = Math.min(canvas.getMaximumBitmapWidth(), canvas.getMaximumBitmapHeight());
+        }
+
+        if (getDrawable() instanceof TiledImageDrawable) {
+            updateTiledViewport((TiledImageDrawable) getDrawable());
+        }
+
+        if (gestureLayerActive && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()) {
+            drawGestureLayer(canvas);
+        } else if (!(viewportCulling || mipmapEnabled) || !drawVisibleBitmap(canvas)) {
+            super.onDraw(canvas);
+        }
+
+        if (markerOverlay != null && getDrawable() != null) {
+            getImageMatrix().getValues(overlayMatrixValues);
+            markerOverlay.draw(canvas, overlayMatrixValues[Matrix.MSCALE_X],
+                    overlayMatrixValues[Matrix.MTRANS_X] + getPaddingLeft(),
+                    overlayMatrixValues[Matrix.MTRANS_Y] + getPaddingTop(), getWidth(), getHeight());
+        }
+    }
+
+    /**
+     * Draw a bitmap image directly: only the part of it that is visible in the view if viewport
+     * culling is enabled, found by mapping the visible area of the view back through the inverse
+     * of the image matrix, and from the level of its mipmap pyramid matching its displayed size
+     * if mipmapping is enabled.
+     *
+     * @param canvas the canvas to draw on
+     * @return true if the image was drawn, false if it needs neither and should be drawn as usual
+     */
+    private boolean drawVisibleBitmap(final Canvas canvas) {
+        final Drawable drawable = getDrawable();
+        final Bitmap displayedBitmap = getCullableBitmap(drawable);
+        if (displayedBitmap == null || !updateInverseImageMatrix()) {
+            return false;
+        }
+
+        final Bitmap level = getMipmapLevel((BitmapDrawable) drawable);
+        if (level == null && !viewportCulling) {
+            return false;
+        }
+
+        final Bitmap bitmap = level != null ? level : displayedBitmap;
+        final Rect drawableBounds = drawable.getBounds();
+        final float bitmapScaleX = bitmap.getWidth() / (float) drawableBounds.width();
+        final float bitmapScaleY = bitmap.getHeight() / (float) drawableBounds.height();
+
+        if (viewportCulling) {
+            //the area the image can be seen in, in the coordinates the image matrix applies to
+            if (getCropToPadding()) {
+                visibleImageRect.set(0, 0, getWidth() - getPaddingLeft() - getPaddingRight(),
+                        getHeight() - getPaddingTop() - getPaddingBottom());
+            } else {
+                visibleImageRect.set(-getPaddingLeft(), -getPaddingTop(),
+                        getWidth() - getPaddingLeft(), getHeight() - getPaddingTop());
+            }
+
+            //map it back to the drawable, and then to the pixels of its bitmap
+            inverseImageMatrix.mapRect(visibleImageRect);
+            if (!visibleImageRect.intersect(drawableBounds.left, drawableBounds.top, drawableBounds.right, drawableBounds.bottom)) {
+                //none of the image is visible
+                return true;
+            }
+
+            visibleBitmapRect.set((int) Math.floor((visibleImageRect.left - drawableBounds.left) * bitmapScaleX),
+                    (int) Math.floor((visibleImageRect.top - drawableBounds.top) * bitmapScaleY),
+                    (int) Math.ceil((visibleImageRect.right - drawableBounds.left) * bitmapScaleX),
+                    (int) Math.ceil((visibleImageRect.bottom - drawableBounds.top) * bitmapScaleY));
+            if (!visibleBitmapRect.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())
+                    || (visibleBitmapRect.width() == bitmap.getWidth() && visibleBitmapRect.height() == bitmap.getHeight())) {
+                //all of the bitmap is visible, so there is nothing to cull
+                if (level == null) {
+                    return false;
+                }
+                visibleBitmapRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            }
+        } else {
+            visibleBitmapRect.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        }
+
+        //draw the whole pixels that are visible exactly where they'd be drawn as part of the whole bitmap
+        visibleDrawRect.set(drawableBounds.left + visibleBitmapRect.left / bitmapScaleX,
+                drawableBounds.top + visibleBitmapRect.top / bitmapScaleY,
+                drawableBounds.left + visibleBitmapRect.right / bitmapScaleX,
+                drawableBounds.top + visibleBitmapRect.bottom / bitmapScaleY);
+
+        final int saveCount = canvas.save();
+        if (getCropToPadding()) {
+            canvas.clipRect(getPaddingLeft(), getPaddingTop(),
+                    getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+        }
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(getImageMatrix());
+        canvas.drawBitmap(bitmap, visibleBitmapRect, visibleDrawRect, ((BitmapDrawable) drawable).getPaint());
+        canvas.restoreToCount(saveCount);
+        return true;
+    }
+
+    /**
+     * Get the level of the mipmap pyramid of a bitmap image to draw it from at its current scale,
+     * starting to build the pyramid in the background if it hasn't been built for the image yet.
+     *
+     * @param drawable the bitmap image being displayed
+     * @return the level, or null if the image should be drawn from its own bitmap
+     */
+    @Nullable
+    private Bitmap getMipmapLevel(final BitmapDrawable drawable) {
+        final Bitmap bitmap = drawable.getBitmap();
+        if (!mipmapEnabled || bitmap == null) {
+            return null;
+        }
+
+        if (mipmapPyramid == null || mipmapPyramid.getBitmap() != bitmap) {
+            releaseMipmaps();
+            mipmapPyramid = new MipmapPyramid(bitmap, mipmapsBuiltCallback).start(decodeOwner);
+            return null;
+        }
+
+        //a sharper upgrade of a sampled image has the same bounds, so the scale is relative to its base bitmap
+        getImageMatrix().getValues(drawMatrixValues);
+        final float scale = drawMatrixValues[Matrix.MSCALE_X] * drawable.getBounds().width() / bitmap.getWidth();
+
+        //while the image moves at reduced quality, a level of half the needed resolution stands in for it
+        return mipmapPyramid.getLevel(renderQualityReduced ? scale / 2 : scale);
+    }
+
+    private final MipmapPyramid.Callback mipmapsBuiltCallback = new MipmapPyramid.Callback() {
+        @Override
+        public void onMipmapsBuilt(final MipmapPyramid pyramid) {
+            if (pyramid == mipmapPyramid) {
+                invalidate();
+            }
+        }
+    };
+
+    private void releaseMipmaps() {
+        if (mipmapPyramid != null) {
+            mipmapPyramid.recycle();
+            mipmapPyramid = null;
+        }
+    }
+
+    /**
+     * Get the bitmap of a drawable that draws nothing but its bitmap stretched over its bounds,
+     * so that part of it can be drawn in its place.
+     *
+     * @param drawable the drawable being displayed
+     * @return the bitmap, or null if the drawable can't be drawn in parts
+     */
+    @Nullable
+    private Bitmap getCullableBitmap(@Nullable final Drawable drawable) {
+        if (!(drawable instanceof BitmapDrawable) || drawable.getBounds().isEmpty()
+                || ImageViewCompat.getImageTintList(this) != null) {
+            return null;
+        }
+
+        final BitmapDrawable bitmapDrawable = (BitmapDrawable) drawable;
+        if (bitmapDrawable.getTileModeX() != null || bitmapDrawable.getTileModeY() != null
+                || bitmapDrawable.getGravity() != Gravity.FILL) {
+            return null;
+        }
+
+        final Bitmap bitmap;
+        if (drawable instanceof SampledBitmapDrawable) {
+            bitmap = ((SampledBitmapDrawable) drawable).getDisplayedBitmap();
+        } else if (drawable.getClass() == BitmapDrawable.class) {
+            bitmap = bitmapDrawable.getBitmap();
+        } else {
+            //a subclass may draw something else
+            return null;
+        }
+
+        return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+
+    /**
+     * Draw the cached display list of the image through the layer matrix, the same way
+     * {@link ImageView} draws its drawable through the image matrix.
+     *
+     * @param canvas the canvas to draw on
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void drawGestureLayer(final Canvas canvas) {
+        final Drawable drawable = getDrawable();
+        if (drawable == null) {
+            return;
+        }
+
+        if (contentNode == null) {
+            contentNode = new RenderNode("ZoomageContent");
+        }
+
+        if (contentNodeDirty || !contentNode.hasDisplayList()) {
+            final int width = drawable.getBounds().width();
+            final int height = drawable.getBounds().height();
+            contentNode.setPosition(0, 0, width, height);
+            final RecordingCanvas recordingCanvas = contentNode.beginRecording(width, height);
+            try {
+                drawable.draw(recordingCanvas);
+            } finally {
+                contentNode.endRecording();
+            }
+            contentNodeDirty = false;
+        }
+
+        final int saveCount = canvas.save();
+        if (getCropToPadding()) {
+            canvas.clipRect(getPaddingLeft(), getPaddingTop(),
+                    getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+        }
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(layerMatrix);
+        canvas.drawRenderNode(contentNode);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Let a tiled image know which part of it is visible, using the bounds of the image as
+     * currently displayed, so it can decode the tiles it needs at a matching resolution.
+     *
+     * @param drawable the tiled image being displayed
+     */
+    private void updateTiledViewport(final TiledImageDrawable drawable) {
+        getImageMatrix().getValues(matrixValues);
+        updateBounds(matrixValues);
+
+        final float scale = matrixValues[Matrix.MSCALE_X];
+        if (scale <= 0) {
+            return;
+        }
+
+        drawable.setViewport(scale,
+                -transform.getLeft() / scale,
+                -transform.getTop() / scale,
+                (getWidth() - transform.getLeft()) / scale,
+                (getHeight() - transform.getTop()) / scale);
+    }
+
+    /**
+     * Update the bounds of the displayed image based on the current matrix.
+     *
+     * @param values the image's current matrix values.
+     */
+    private void updateBounds(final float[] values) {
+        if (getDrawable() != null) {
+            transform.setImageSize(getDrawable().getIntrinsicWidth(), getDrawable().getIntrinsicHeight());
+        }
+
+        transform.setViewSize(getWidth(), getHeight());
+        transform.setValues(values);
+    }
+
+    /**
+     * Get the width of the displayed image.
+     *
+     * @return the current width of the image as displayed (not the width of the {@link ImageView} itself.
+     */
+    private float getCurrentDisplayedWidth() {
+        if (getDrawable() != null)
+            return getDrawable().getIntrinsicWidth() * matrixValues[Matrix.MSCALE_X];
+        else
+            return 0;
+    }
+
+    /**
+     * Get the height of the displayed image.
+     *
+     * @return the current height of the image as displayed (not the height of the {@link ImageView} itself.
+     */
+    private float getCurrentDisplayedHeight() {
+        if (getDrawable() != null)
+            return getDrawable().getIntrinsicHeight() * matrixValues[Matrix.MSCALE_Y];
+        else
+            return 0;
+    }
+
+    /**
+     * Remember our starting values so we can animate our image back to its original position.
+     */
+    private void setStartValues() {
+        if (startValues == null) {
+            startValues = new float[9];
+        }
+
+        startMatrix.set(getImageMatrix());
+        startMatrix.getValues(startValues);
+        startValuesSet = true;
+        transform.setStartScale(startValues[Matrix.MSCALE_X]);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (gestureRecorder != null) {
+            gestureRecorder.record(event, getWidth(), getHeight());
+        }
+
+        if (gestureMetricsListener == null) {
+            return handleTouchEvent(event);
+        }
+
+        final long start = System.nanoTime();
+        final boolean handled = handleTouchEvent(event);
+        if (gestureMetricsActive) {
+            gestureMetrics.addTouchEvent(System.nanoTime() - start);
+        }
+
+        return handled;
+    }
+
+    private boolean handleTouchEvent(MotionEvent event) {
+
+        if (!isClickable() && isEnabled() && (zoomable || translatable)) {
+            if (getScaleType() != ScaleType.MATRIX) {
+                super.setScaleType(ScaleType.MATRIX);
+            }
+
+            if (!startValuesSet) {
+                setStartValues();
+            }
+
+            if (scaleDetector == null) {
+                createGestureDetectors();
+            }
+
+            currentPointerCount = event.getPointerCount();
+
+            //a new touch takes over from any running animation, right where it is
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                DecodeScheduler.setTouched(decodeOwner);
+                cancelTransformAnimation();
+                stopFling();
+                beginGestureLayer();
+                startGestureMetrics();
+
+                if (transformChangeListener != null) {
+                    transformChangeListener.onGestureStart();
+                }
+
+                //the parent resets this on every down event
+                parentTouchDisallowed = false;
+
+                if (isNestedScrollingEnabled()) {
+                    nestedScrollRemainderX = 0;
+                    nestedScrollRemainderY = 0;
+                    startNestedScroll(ViewCompat.SCROLL_AXIS_HORIZONTAL | ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_TOUCH);
+                }
+            }
+
+            if (flingEnabled || isNestedScrollingEnabled()) {
+                trackVelocity(event);
+            }
+
+            //anything other than a move is handled against the image as it's actually displayed
+            if (event.getActionMasked() != MotionEvent.ACTION_MOVE) {
+                commitPendingTransform();
+            }
+
+            //get the current state of the image matrix, its values, and the bounds of the drawn bitmap
+            matrix.set(getImageMatrix());
+            matrix.getValues(matrixValues);
+            updateBounds(matrixValues);
+
+            if (predictTouch) {
+                updateTouchPrediction(event);
+            }
+
+            scaleDetector.onTouchEvent(event);
+            gestureDetector.onTouchEvent(event);
+
+            if (doubleTapToZoom && doubleTapDetected) {
+                doubleTapDetected = false;
+                singleTapDetected = false;
+                if (matrixValues[Matrix.MSCALE_X] != startValues[Matrix.MSCALE_X]) {
+                    resetToStartMatrix(animateOnReset);
+                } else {
+                    final Matrix zoomMatrix = getZoomMatrix();
+                    zoomMatrix.set(matrix);
+                    zoomMatrix.postScale(doubleTapToZoomScaleFactor, doubleTapToZoomScaleFactor, scaleDetector.getFocusX(), scaleDetector.getFocusY());
+                    animateScaleAndTranslationToMatrix(zoomMatrix, RESET_DURATION);
+                }
+
+                onGestureReleased();
+                return true;
+            } else if (!singleTapDetected) {
+                /* if the event is a down touch, or if the number of touch points changed,
+                 * we should reset our start point, as event origins have likely shifted to a
+                 * different part of the screen*/
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN ||
+                        currentPointerCount != previousPointerCount) {
+                    last.set(scaleDetector.getFocusX(), scaleDetector.getFocusY());
+                } else if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
+
+                    final boolean predicted = predictTouch && touchPredictor.hasPrediction();
+                    final float focusx = predicted ? touchPredictor.getPredictedX() : scaleDetector.getFocusX();
+                    final float focusy = predicted ? touchPredictor.getPredictedY() : scaleDetector.getFocusY();
+
+                    //a single finger pan is shared with a nested scrolling parent, which gets the first chance to use it
+                    final boolean nestedPan = currentPointerCount == 1 && !scaleDetector.isInProgress()
+                            && hasNestedScrollingParent(ViewCompat.TYPE_TOUCH);
+
+                    if (coalesceTouchEvents && !nestedPan) {
+                        postPendingTransform(event, focusx, focusy);
+                        return finishTouchEvent(event);
+                    }
+
+                    commitPendingTransform();
+                    float panx = focusx;
+                    float pany = focusy;
+                    if (nestedPan) {
+                        nestedScrollConsumed[0] = 0;
+                        nestedScrollConsumed[1] = 0;
+                        dispatchNestedPreScroll(Math.round(last.x - focusx), Math.round(last.y - focusy),
+                                nestedScrollConsumed, null, ViewCompat.TYPE_TOUCH);
+                        panx += nestedScrollConsumed[0];
+                        pany += nestedScrollConsumed[1];
+                    }
+
+                    float xdistance = 0;
+                    float ydistance = 0;
+                    if (allowTranslate(event)) {
+                        //calculate the distance for translation
+                        xdistance = transform.getXDistance(panx, last.x, scaleDetector.isInProgress());
+                        ydistance = transform.getYDistance(pany, last.y, scaleDetector.isInProgress());
+                        matrix.postTranslate(xdistance, ydistance);
+                    }
+
+                    if (nestedPan) {
+                        dispatchNestedPan(panx - last.x - xdistance, pany - last.y - ydistance, xdistance, ydistance);
+                    }
+
+                    if (allowZoom(event)) {
+                        matrix.postScale(scaleBy, scaleBy, focusx, focusy);
+                        currentScaleFactor = matrixValues[Matrix.MSCALE_X] / startValues[Matrix.MSCALE_X];
+                    }
+
+                    setImageMatrix(matrix);
+                    last.set(focusx, focusy);
+                }
+
+                if (event.getActionMasked() == MotionEvent.ACTION_UP ||
+                    event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+                    scaleBy = 1f;
+
+                    //a fling resets the image once it finishes
+                    if (event.getActionMasked() == MotionEvent.ACTION_CANCEL || !startFling(event)) {
+                        resetImage();
+                    }
+                }
+            }
+
+            if (event.getActionMasked() == MotionEvent.ACTION_UP || event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+                stopNestedScroll(ViewCompat.TYPE_TOUCH);
+                onGestureReleased();
+            }
+
+            return finishTouchEvent(event);
+        }
+
+        return super.onTouchEvent(event);
+    }
+
+    /**
+     * Update the parent's interception and the pointer count once a touch event has been handled.
+     *
+     * @return true, as the event was handled
+     */
+    private boolean finishTouchEvent(final MotionEvent event) {
+        //only tell the parent when this changes, rather than on every event, and leave it to
+        //a nested scrolling parent to take what the image doesn't use
+        final boolean disallowParent = disallowParentTouch(event) || hasNestedScrollingParent(ViewCompat.TYPE_TOUCH);
+        if (disallowParent != parentTouchDisallowed) {
+            parentTouchDisallowed = disallowParent;
+            getParent().requestDisallowInterceptTouchEvent(disallowParent);
+        }
+
+        if (event.getActionMasked() == MotionEvent.ACTION_UP || event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+            //the parent resets this once the gesture ends
+            parentTouchDisallowed = false;
+        }
+
+        //this tracks whether they have changed the number of fingers down
+        previousPointerCount = currentPointerCount;
+
+        return true;
+    }
+
+    /**
+     * Feed a touch event to the predictor. Moves are extrapolated to about when the next frame will
+     * be displayed, while anything else first takes back whatever the last prediction got wrong.
+     */
+    private void updateTouchPrediction(final MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
+            touchPredictor.addEvent(event);
+            touchPredictor.predict(SystemClock.uptimeMillis() + predictionMillis);
+            return;
+        }
+
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            predictionMillis = getFrameIntervalNanos() / 1000000;
+        } else if (touchPredictor.hasPrediction()) {
+            correctTouchPrediction(event);
+        }
+
+        touchPredictor.reset();
+    }
+
+    /**
+     * Move the image from where the last prediction put it to where the last actual touch sample
+     * would have, so the gesture ends exactly under the fingers.
+     */
+    private void correctTouchPrediction(final MotionEvent event) {
+        final float focusx = touchPredictor.getLastX();
+        final float focusy = touchPredictor.getLastY();
+
+        if (allowTranslate(event)) {
+            float xdistance = transform.getXDistance(focusx, last.x, scaleDetector.isInProgress());
+            float ydistance = transform.getYDistance(focusy, last.y, scaleDetector.isInProgress());
+            matrix.postTranslate(xdistance, ydistance);
+        }
+
+        if (allowZoom(event) && scaleDetector.isInProgress() && scaleDetector.getPreviousSpan() > 0) {
+            final float correctedScaleBy = transform.getClampedScaleBy(
+                    startScale * touchPredictor.getLastSpan() / scaleDetector.getPreviousSpan());
+            matrix.postScale(correctedScaleBy, correctedScaleBy, focusx, focusy);
+        }
+
+        matrix.getValues(matrixValues);
+        updateBounds(matrixValues);
+        currentScaleFactor = matrixValues[Matrix.MSCALE_X] / startValues[Matrix.MSCALE_X];
+        setImageMatrix(matrix);
+        last.set(focusx, focusy);
+    }
+
+    /**
+     * Create the gesture detectors, which are only needed once the view is touched.
+     */
+    private void createGestureDetectors() {
+        scaleDetector = new ScaleGestureDetector(getContext(), this);
+        gestureDetector = new GestureDetector(getContext(), gestureListener);
+        ScaleGestureDetectorCompat.setQuickScaleEnabled(scaleDetector, false);
+    }
+
+    /**
+     * @return the matrix double tap zooming and centering animate to, created on first use
+     */
+    private Matrix getZoomMatrix() {
+        if (zoomMatrix == null) {
+            zoomMatrix = new Matrix();
+        }
+
+        return zoomMatrix;
+    }
+
+    /**
+     * Keep the latest touch focus of a move event, and apply the movement and scaling since the last
+     * frame to the image on the next frame.
+     */
+    private void postPendingTransform(final MotionEvent event, final float focusx, final float focusy) {
+        //the distance moved since the last frame is the sum of the deltas of every event in between,
+        //historical samples included, and the target scale is measured from where scaling began,
+        //so only the latest of each needs to be kept
+        pendingFocus.set(focusx, focusy);
+        pendingTranslate = allowTranslate(event);
+        pendingZoom = allowZoom(event) && scaleDetector.isInProgress();
+        pendingScaling = scaleDetector.isInProgress();
+        transformPending = true;
+
+        if (!touchFramePosted) {
+            touchFramePosted = true;
+            Choreographer.getInstance().postFrameCallback(touchFrameCallback);
+        }
+    }
+
+    /**
+     * Immediately apply the movement and scaling that is waiting for the next frame, the same way
+     * a single move event would.
+     */
+    private void commitPendingTransform() {
+        if (!transformPending) {
+            return;
+        }
+
+        transformPending = false;
+        matrix.set(getImageMatrix());
+        matrix.getValues(matrixValues);
+        updateBounds(matrixValues);
+
+        if (pendingTranslate) {
+            final float xdistance = transform.getXDistance(pendingFocus.x, last.x, pendingScaling);
+            final float ydistance = transform.getYDistance(pendingFocus.y, last.y, pendingScaling);
+            matrix.postTranslate(xdistance, ydistance);
+        }
+
+        if (pendingZoom) {
+            final float pendingScaleBy = transform.getClampedScaleBy(targetScale);
+            matrix.postScale(pendingScaleBy, pendingScaleBy, pendingFocus.x, pendingFocus.y);
+            currentScaleFactor = matrixValues[Matrix.MSCALE_X] / startValues[Matrix.MSCALE_X];
+        }
+
+        setImageMatrix(matrix);
+        last.set(pendingFocus);
+
+        //leave the values and bounds matching the image, for any move handled right after
+        matrix.getValues(matrixValues);
+        updateBounds(matrixValues);
+    }
+
+    /**
+     * Drop changes to the working matrix that are waiting for the next frame.
+     */
+    private void discardPendingTransform() {
+        transformPending = false;
+
+        if (touchFramePosted) {
+            touchFramePosted = false;
+            Choreographer.getInstance().removeFrameCallback(touchFrameCallback);
+        }
+    }
+
+    private final Choreographer.FrameCallback touchFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            touchFramePosted = false;
+            commitPendingTransform();
+        }
+    };
+
+    protected boolean disallowParentTouch(MotionEvent event) {
+        if ((currentPointerCount > 1 || currentScaleFactor > 1.0f || isAnimating())) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected boolean allowTranslate(MotionEvent event) {
+        return translatable && currentScaleFactor > 1.0f;
+    }
+
+    protected boolean allowZoom(MotionEvent event) {
+        return zoomable;
+    }
+
+    private boolean isAnimating() {
+        return (transformAnimator != null && transformAnimator.isRunning()) || flingRunning;
+    }
+
+    /**
+     * Reset the image based on the specified {@link AutoResetMode} mode.
+     */
+    private void resetImage() {
+        if (shouldResetOnRelease()) {
+            resetToStartMatrix(animateOnReset);
+        } else {
+            center();
+        }
+    }
+
+    /**
+     * Whether the image should reset to its starting size, rather than stay at its current
+     * size, once interaction stops, based on the specified {@link AutoResetMode} mode.
+     *
+     * @return true if the image should be reset
+     */
+    private boolean shouldResetOnRelease() {
+        return transform.shouldResetOnRelease();
+    }
+
+    private void trackVelocity(final MotionEvent event) {
+        if (velocityTracker == null) {
+            velocityTracker = VelocityTracker.obtain();
+        }
+
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            velocityTracker.clear();
+        }
+
+        velocityTracker.addMovement(event);
+    }
+
+    /**
+     * Start a fling if the image was released during a single finger pan fast enough, and
+     * won't be reset anyway. The fling runs on the frame clock until it stops or reaches the
+     * edges allowed by the current bounds, and the image is reset once it finishes.
      *
-     * @param ydistance the current desired vertical distance to translate
-     * @return the actual vertical distance to translate with bounds restrictions
+     * @param event the up event that ended the pan
+     * @return true if a fling was started
      */
-    private float getRestrictedYDistance(final float ydistance) {
-        float restrictedYDistance = ydistance;
+    private boolean startFling(final MotionEvent event) {
+        if (velocityTracker == null || previousPointerCount > 1) {
+            return false;
+        }
+
+        if (flingScroller == null) {
+            final ViewConfiguration configuration = ViewConfiguration.get(getContext());
+            minFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+            maxFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+            flingScroller = new OverScroller(getContext());
+        }
+
+        velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+        final float velocityX = velocityTracker.getXVelocity();
+        final float velocityY = velocityTracker.getYVelocity();
+        if (Math.abs(velocityX) < minFlingVelocity && Math.abs(velocityY) < minFlingVelocity) {
+            return false;
+        }
+
+        //a nested scrolling parent can take the whole fling, or is told whether the image will fling
+        final boolean imageFling = flingEnabled && allowTranslate(event) && !shouldResetOnRelease();
+        if (hasNestedScrollingParent(ViewCompat.TYPE_TOUCH)) {
+            if (dispatchNestedPreFling(-velocityX, -velocityY)) {
+                return false;
+            }
+
+            dispatchNestedFling(-velocityX, -velocityY, imageFling);
+        }
+
+        if (!imageFling) {
+            return false;
+        }
+
+        final int startX = Math.round(matrixValues[Matrix.MTRANS_X]);
+        final int startY = Math.round(matrixValues[Matrix.MTRANS_Y]);
+        final float displayedWidth = getCurrentDisplayedWidth();
+        final float displayedHeight = getCurrentDisplayedHeight();
+
+        //stop at the edges when the image would be pulled back to them anyway, otherwise
+        //only stop the image from leaving the view entirely, as getXDistance does
+        final boolean stopAtEdges = transform.getRestrictBounds() || autoCenter;
+        final int minX = Math.round(stopAtEdges ? Math.min(getWidth() - displayedWidth, startX) : -displayedWidth);
+        final int maxX = Math.round(stopAtEdges ? Math.max(0, startX) : getWidth());
+        final int minY = Math.round(stopAtEdges ? Math.min(getHeight() - displayedHeight, startY) : -displayedHeight);
+        final int maxY = Math.round(stopAtEdges ? Math.max(0, startY) : getHeight());
+
+        flingLastX = startX;
+        flingLastY = startY;
+        flingMinX = minX;
+        flingMaxX = maxX;
+        flingMinY = minY;
+        flingMaxY = maxY;
+
+        //when a nested scrolling parent takes over at the edges, the scroller runs past them and the image stops there
+        nestedFlingRunning = isNestedScrollingEnabled()
+                && startNestedScroll(ViewCompat.SCROLL_AXIS_HORIZONTAL | ViewCompat.SCROLL_AXIS_VERTICAL, ViewCompat.TYPE_NON_TOUCH);
+        if (nestedFlingRunning) {
+            flingScroller.fling(startX, startY, Math.round(velocityX), Math.round(velocityY),
+                    Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2);
+        } else {
+            flingScroller.fling(startX, startY, Math.round(velocityX), Math.round(velocityY), minX, maxX, minY, maxY);
+        }
+
+        flingRunning = true;
+        reduceRenderQuality();
+        Choreographer.getInstance().postFrameCallback(flingFrameCallback);
+        return true;
+    }
+
+    /**
+     * Stop a running fling, leaving the image where it currently is.
+     */
+    private void stopFling() {
+        if (flingRunning) {
+            flingRunning = false;
+            flingScroller.forceFinished(true);
+            Choreographer.getInstance().removeFrameCallback(flingFrameCallback);
+            stopNestedFling();
+        }
+    }
+
+    private void stopNestedFling() {
+        if (nestedFlingRunning) {
+            nestedFlingRunning = false;
+            stopNestedScroll(ViewCompat.TYPE_NON_TOUCH);
+        }
+    }
+
+    private final Choreographer.FrameCallback flingFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            matrix.set(getImageMatrix());
+            matrix.getValues(matrixValues);
+            updateBounds(matrixValues);
+
+            if (!flingScroller.computeScrollOffset()) {
+                finishFling();
+                return;
+            }
 
-        if (getCurrentDisplayedHeight() >= getHeight()) {
-            if (bounds.top <= 0 && bounds.top + ydistance > 0 && !scaleDetector.isInProgress()) {
-                restrictedYDistance = -bounds.top;
-            } else if (bounds.bottom >= getHeight() && bounds.bottom + ydistance < getHeight() && !scaleDetector.isInProgress()) {
-                restrictedYDistance = getHeight() - bounds.bottom;
+            //move by the scroller's progress, kept within the fling's edges and restricted the same way as a pan
+            final int x = flingScroller.getCurrX();
+            final int y = flingScroller.getCurrY();
+            final float translateX = matrixValues[Matrix.MTRANS_X];
+            final float translateY = matrixValues[Matrix.MTRANS_Y];
+            final float xdistance = transform.getXDistance(
+                    Math.max(flingMinX, Math.min(flingMaxX, translateX + x - flingLastX)) - translateX, 0, false);
+            final float ydistance = transform.getYDistance(
+                    Math.max(flingMinY, Math.min(flingMaxY, translateY + y - flingLastY)) - translateY, 0, false);
+            matrix.postTranslate(xdistance, ydistance);
+            setImageMatrix(matrix);
+
+            //pass what the image couldn't use to the parent, and stop once neither can use any more
+            if (nestedFlingRunning) {
+                nestedScrollConsumed[0] = 0;
+                nestedScrollConsumed[1] = 0;
+                dispatchNestedScroll(Math.round(-xdistance), Math.round(-ydistance),
+                        Math.round(xdistance - (x - flingLastX)), Math.round(ydistance - (y - flingLastY)),
+                        null, ViewCompat.TYPE_NON_TOUCH, nestedScrollConsumed);
+
+                if (xdistance == 0 && ydistance == 0 && nestedScrollConsumed[0] == 0 && nestedScrollConsumed[1] == 0
+                        && (x != flingLastX || y != flingLastY)) {
+                    flingScroller.forceFinished(true);
+                    finishFling();
+                    return;
+                }
             }
-        } else if (!scaleDetector.isInProgress()) {
-            if (bounds.top >= 0 && bounds.top + ydistance < 0) {
-                restrictedYDistance = -bounds.top;
-            } else if (bounds.bottom <= getHeight() && bounds.bottom + ydistance > getHeight()) {
-                restrictedYDistance = getHeight() - bounds.bottom;
+
+            flingLastX = x;
+            flingLastY = y;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    /**
+     * End a fling that has run its course, and reset the image.
+     */
+    private void finishFling() {
+        flingRunning = false;
+        stopNestedFling();
+        resetImage();
+
+        if (!isAnimating()) {
+            onTransformSettled();
+        }
+    }
+
+    /**
+     * Pass the part of a pan the image couldn't use to a nested scrolling parent. Scroll distances
+     * run opposite to the movement of the fingers, and are passed on in whole pixels, with the rest
+     * saved for the next pan.
+     *
+     * @param unconsumedX the horizontal distance the fingers moved that the image didn't use
+     * @param unconsumedY the vertical distance the fingers moved that the image didn't use
+     * @param consumedX   the horizontal distance the image moved
+     * @param consumedY   the vertical distance the image moved
+     */
+    private void dispatchNestedPan(final float unconsumedX, final float unconsumedY,
+                                   final float consumedX, final float consumedY) {
+        nestedScrollRemainderX += unconsumedX;
+        nestedScrollRemainderY += unconsumedY;
+        final int scrollX = -Math.round(nestedScrollRemainderX);
+        final int scrollY = -Math.round(nestedScrollRemainderY);
+        nestedScrollRemainderX += scrollX;
+        nestedScrollRemainderY += scrollY;
+
+        if (scrollX != 0 || scrollY != 0) {
+            nestedScrollConsumed[0] = 0;
+            nestedScrollConsumed[1] = 0;
+            dispatchNestedScroll(Math.round(-consumedX), Math.round(-consumedY), scrollX, scrollY,
+                    null, ViewCompat.TYPE_TOUCH, nestedScrollConsumed);
+        }
+    }
+
+    private NestedScrollingChildHelper getNestedScrollingHelper() {
+        if (nestedScrollingHelper == null) {
+            nestedScrollingHelper = new NestedScrollingChildHelper(this);
+        }
+
+        return nestedScrollingHelper;
+    }
+
+    /**
+     * Set whether pans and flings that the image can't use, such as at its edges or at its starting
+     * scale, are passed on to a nested scrolling parent like a {@code NestedScrollView} or
+     * {@code CoordinatorLayout}. While one is handling them, the parent isn't asked to stop
+     * intercepting touch events. Can also be set with {@code android:nestedScrollingEnabled}
+     * on API 21 and above. Default value is false.
+     *
+     * @param enabled true to enable nested scrolling
+     */
+    @Override
+    public void setNestedScrollingEnabled(boolean enabled) {
+        getNestedScrollingHelper().setNestedScrollingEnabled(enabled);
+    }
+
+    @Override
+    public boolean isNestedScrollingEnabled() {
+        return nestedScrollingHelper != null && nestedScrollingHelper.isNestedScrollingEnabled();
+    }
+
+    @Override
+    public boolean startNestedScroll(int axes) {
+        return getNestedScrollingHelper().startNestedScroll(axes);
+    }
+
+    @Override
+    public boolean startNestedScroll(int axes, int type) {
+        return getNestedScrollingHelper().startNestedScroll(axes, type);
+    }
+
+    @Override
+    public void stopNestedScroll() {
+        if (nestedScrollingHelper != null) {
+            nestedScrollingHelper.stopNestedScroll();
+        }
+    }
+
+    @Override
+    public void stopNestedScroll(int type) {
+        if (nestedScrollingHelper != null) {
+            nestedScrollingHelper.stopNestedScroll(type);
+        }
+    }
+
+    @Override
+    public boolean hasNestedScrollingParent() {
+        return nestedScrollingHelper != null && nestedScrollingHelper.hasNestedScrollingParent();
+    }
+
+    @Override
+    public boolean hasNestedScrollingParent(int type) {
+        return nestedScrollingHelper != null && nestedScrollingHelper.hasNestedScrollingParent(type);
+    }
+
+    @Override
+    public boolean dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed,
+                                        @Nullable int[] offsetInWindow) {
+        return getNestedScrollingHelper().dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed, offsetInWindow);
+    }
+
+    @Override
+    public boolean dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed,
+                                        @Nullable int[] offsetInWindow, int type) {
+        return getNestedScrollingHelper().dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed,
+                offsetInWindow, type);
+    }
+
+    @Override
+    public void dispatchNestedScroll(int dxConsumed, int dyConsumed, int dxUnconsumed, int dyUnconsumed,
+                                     @Nullable int[] offsetInWindow, int type, @NonNull int[] consumed) {
+        getNestedScrollingHelper().dispatchNestedScroll(dxConsumed, dyConsumed, dxUnconsumed, dyUnconsumed,
+                offsetInWindow, type, consumed);
+    }
+
+    @Override
+    public boolean dispatchNestedPreScroll(int dx, int dy, @Nullable int[] consumed, @Nullable int[] offsetInWindow) {
+        return getNestedScrollingHelper().dispatchNestedPreScroll(dx, dy, consumed, offsetInWindow);
+    }
+
+    @Override
+    public boolean dispatchNestedPreScroll(int dx, int dy, @Nullable int[] consumed, @Nullable int[] offsetInWindow,
+                                           int type) {
+        return getNestedScrollingHelper().dispatchNestedPreScroll(dx, dy, consumed, offsetInWindow, type);
+    }
+
+    @Override
+    public boolean dispatchNestedFling(float velocityX, float velocityY, boolean consumed) {
+        return getNestedScrollingHelper().dispatchNestedFling(velocityX, velocityY, consumed);
+    }
+
+    @Override
+    public boolean dispatchNestedPreFling(float velocityX, float velocityY) {
+        return getNestedScrollingHelper().dispatchNestedPreFling(velocityX, velocityY);
+    }
+
+    /**
+     * This helps to keep the image on-screen by animating the translation to the nearest
+     * edge, both vertically and horizontally.
+     */
+    private void center() {
+        //the gesture has settled at its current scale, so the image may need more detail
+        loadSharperImage();
+
+        if (autoCenter) {
+            final float targetX = transform.getCenteredTranslationX();
+            final float targetY = transform.getCenteredTranslationY();
+
+            if (targetX != matrixValues[Matrix.MTRANS_X] || targetY != matrixValues[Matrix.MTRANS_Y]) {
+                final Matrix zoomMatrix = getZoomMatrix();
+                zoomMatrix.setValues(matrixValues);
+                zoomMatrix.postTranslate(targetX - matrixValues[Matrix.MTRANS_X], targetY - matrixValues[Matrix.MTRANS_Y]);
+                animateScaleAndTranslationToMatrix(zoomMatrix, RESET_DURATION);
             }
         }
+    }
+
+    /**
+     * Reset image back to its original size. Will snap back to original size
+     * if animation on reset is disabled via {@link #setAnimateOnReset(boolean)}.
+     */
+    public void reset() {
+        reset(animateOnReset);
+    }
+
+    /**
+     * Reset image back to its starting size. If {@code animate} is false, image
+     * will snap back to its original size.
+     *
+     * @param animate animate the image back to its starting size
+     */
+    public void reset(final boolean animate) {
+        resetToStartMatrix(animate);
+
+        //an animated reset settles once the animation ends
+        if (!animate) {
+            onTransformSettled();
+        }
+    }
+
+    /**
+     * Move the image back to its starting size, leaving it to the caller to settle the transform
+     * if it isn't animated, as a released gesture or fling does.
+     *
+     * @param animate animate the image back to its starting size
+     */
+    private void resetToStartMatrix(final boolean animate) {
+        //the sharper image stays while the image animates out of its detail, and is released once settled
+        cancelSharperImage();
+
+        if (animate) {
+            animateToStartMatrix();
+        } else {
+            cancelTransformAnimation();
+            setImageMatrix(startMatrix);
+        }
+    }
+
+    /**
+     * Animate the matrix back to its original position after the user stopped interacting with it.
+     */
+    private void animateToStartMatrix() {
+        animateScaleAndTranslationToMatrix(startMatrix, RESET_DURATION);
+    }
+
+    /**
+     * Animate the scale and translation of the current matrix to the target
+     * matrix. Scale and both translations are animated together, with a single
+     * update of the image matrix per frame. If an animation is already running,
+     * it is retargeted from its current state to the new target.
+     *
+     * @param targetMatrix the target matrix to animate values to
+     */
+    private void animateScaleAndTranslationToMatrix(final Matrix targetMatrix, final int duration) {
+        cancelTransformAnimation();
+
+        if (transformAnimator == null) {
+            transformAnimator = ValueAnimator.ofFloat(0, 1f);
+            transformAnimator.addUpdateListener(transformAnimatorUpdateListener);
+            transformAnimator.addListener(transformAnimatorListener);
+            animationMatrix = new Matrix();
+            animationTargetMatrix = new Matrix();
+            animationStartValues = new float[9];
+            animationTargetValues = new float[9];
+            animationValues = new float[9];
+        }
 
-        return restrictedYDistance;
+        animationTargetMatrix.set(targetMatrix);
+        animationTargetMatrix.getValues(animationTargetValues);
+        getImageMatrix().getValues(animationStartValues);
+
+        transformAnimatorCancelled = false;
+        transformAnimator.setDuration(duration);
+        reduceRenderQuality();
+        transformAnimator.start();
+    }
+
+    /**
+     * Jump any running transform animation to its end, so nothing is left running once the view is detached.
+     */
+    private void finishTransformAnimation() {
+        if (transformAnimator != null && transformAnimator.isRunning()) {
+            transformAnimator.end();
+        }
+    }
+
+    /**
+     * Stop any running transform animation, leaving the image where it currently is.
+     */
+    private void cancelTransformAnimation() {
+        if (transformAnimator != null && transformAnimator.isRunning()) {
+            transformAnimator.cancel();
+        }
     }
 
+    private final AnimatorUpdateListener transformAnimatorUpdateListener = new AnimatorUpdateListener() {
+        @Override
+        public void onAnimationUpdate(ValueAnimator animation) {
+            final float val = animation.getAnimatedFraction();
+            System.arraycopy(animationStartValues, 0, animationValues, 0, animationValues.length);
+            interpolateValue(Matrix.MTRANS_X, val);
+            interpolateValue(Matrix.MTRANS_Y, val);
+            interpolateValue(Matrix.MSCALE_X, val);
+            interpolateValue(Matrix.MSCALE_Y, val);
+            animationMatrix.setValues(animationValues);
+            setImageMatrix(animationMatrix);
+        }
+
+        private void interpolateValue(final int index, final float fraction) {
+            animationValues[index] = animationStartValues[index]
+                    + (animationTargetValues[index] - animationStartValues[index]) * fraction;
+        }
+    };
+
+    private final Animator.AnimatorListener transformAnimatorListener = new SimpleAnimatorListener() {
+        @Override
+        public void onAnimationCancel(Animator animation) {
+            transformAnimatorCancelled = true;
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            if (!transformAnimatorCancelled) {
+                setImageMatrix(animationTargetMatrix);
+                onTransformSettled();
+            }
+        }
+    };
+
     @Override
     public boolean onScale(ScaleGestureDetector detector) {
+        final long start = gestureMetricsActive ? System.nanoTime() : 0;
+
+        //calculate value we should scale by, ultimately the scale will be startScale*scaleFactor,
+        //clamped to the min/max if it's going over
+        float scaleFactor = detector.getScaleFactor();
 
-        //calculate value we should scale by, ultimately the scale will be startScale*scaleFactor
-        scaleBy = (startScale * detector.getScaleFactor()) / matrixValues[Matrix.MSCALE_X];
+        //the span is predicted the same way as the focus. the previous span stays where scaling
+        //began, since this never reports the scale as handled
+        if (predictTouch && touchPredictor.hasPrediction() && detector.getPreviousSpan() > 0) {
+            scaleFactor = touchPredictor.getPredictedSpan() / detector.getPreviousSpan();
+        }
 
-        //what the scaling should end up at after the transformation
-        final float projectedScale = scaleBy * matrixValues[Matrix.MSCALE_X];
+        targetScale = startScale * scaleFactor;
+        scaleBy = transform.getClampedScaleBy(targetScale);
 
-        //clamp to the min/max if it's going over
-        if (projectedScale < calculatedMinScale) {
-            scaleBy = calculatedMinScale / matrixValues[Matrix.MSCALE_X];
-        } else if (projectedScale > calculatedMaxScale) {
-            scaleBy = calculatedMaxScale / matrixValues[Matrix.MSCALE_X];
+        if (gestureMetricsActive) {
+            gestureMetrics.addScaleTime(System.nanoTime() - start);
         }
 
         return false;
@@ -860,6 +3160,8 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
     @Override
     public boolean onScaleBegin(ScaleGestureDetector detector) {
         startScale = matrixValues[Matrix.MSCALE_X];
+        targetScale = startScale;
+        reduceRenderQuality();
         return true;
     }
 
@@ -889,6 +3191,11 @@ public class ZoomageView extends AppCompatImageView implements OnScaleGestureLis
         @Override
         public boolean onSingleTapConfirmed(MotionEvent e) {
             singleTapDetected = false;
+
+            if (markerOverlay != null) {
+                markerOverlay.performClickAt(e.getX(), e.getY());
+            }
+
             return false;
         }
 
@@ -0,0 +1,377 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays gesture traces through a {@link ZoomageView}, checking the time taken, the bytes
+ * allocated and the final image matrix, and failing if any of them drift past their thresholds.
+ *
+ * The time and allocation thresholds are ceilings per event that can be overridden with the
+ * {@code zoomage.replay.maxNanosPerEvent} and {@code zoomage.replay.maxBytesPerEvent} system properties.
+ * Traces recorded on a device with a {@link GestureRecorder} can be replayed the same way.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GestureReplayTest {
+
+    private static final int VIEW_SIZE = 400;
+    private static final int IMAGE_WIDTH = 200;
+    private static final int IMAGE_HEIGHT = 100;
+
+    //moving and scaling the image allocates nothing. Robolectric's shadow of Matrix is plain Java though,
+    //and allocates on the set, translate and scale each move makes, so that cost is measured on a matrix
+    //of its own and taken off. what's left over the whole measured replay is the allocation counter
+    //itself, which may box the thread id and bean lookups on some JVMs, and is far below a single matrix
+    private static final long MAX_BYTES_WARMED_UP_MOVES = 256L;
+
+    //a whole replay also covers the down and up events, which start and settle animations, obtain
+    //events and run shadows unaccounted for, so this is a ceiling per event rather than exact
+    private static final long MAX_NANOS_PER_EVENT = Long.getLong("zoomage.replay.maxNanosPerEvent", 1000000L);
+    private static final long MAX_BYTES_PER_EVENT = Long.getLong("zoomage.replay.maxBytesPerEvent", 8 * 1024L);
+    private static final float MATRIX_TOLERANCE = 0.05f;
+    private static final int MEASURED_MOVES = 20;
+
+    //the image starts fit to the center of the view, at twice its size
+    private static final float START_SCALE = 2f;
+    private static final float START_TRANSLATE_Y = 100f;
+
+    //the pinch spreads two fingers around the center of the view, from a span of 260 once scaling starts to 400
+    private static final float PINCH_FACTOR = 400f / 260f;
+
+    @Test
+    public void pinch() throws IOException {
+        final ReplayResult result = replay("pinch", readTrace(pinchTrace().build()));
+
+        assertMatrix(result,
+                START_SCALE * PINCH_FACTOR,
+                200 - 200 * PINCH_FACTOR,
+                200 + (START_TRANSLATE_Y - 200) * PINCH_FACTOR);
+    }
+
+    @Test
+    public void pinchThenPan() throws IOException {
+        final ReplayResult result = replay("pinchThenPan", readTrace(pinchThenPanTrace().build()));
+
+        assertMatrix(result,
+                START_SCALE * PINCH_FACTOR,
+                200 - 200 * PINCH_FACTOR + 50,
+                200 + (START_TRANSLATE_Y - 200) * PINCH_FACTOR + 25);
+    }
+
+    @Test
+    public void coalescedEventsEndOnSameMatrix() throws IOException {
+        final GestureTrace trace = readTrace(pinchThenPanTrace().build());
+
+        final ZoomageView perEventView = createView();
+        trace.replay(perEventView);
+
+        //frames run after every few events, as when the screen reports touches faster than it refreshes
+        final ZoomageView coalescedView = createView();
+        coalescedView.setCoalesceTouchEvents(true);
+        final long startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < trace.getEventCount(); i++) {
+            final MotionEvent event = trace.obtainEvent(i, startTime);
+            coalescedView.dispatchTouchEvent(event);
+            event.recycle();
+
+            if (i % 3 == 2) {
+                ShadowLooper.idleMainLooper();
+            }
+        }
+        ShadowLooper.idleMainLooper();
+
+        assertArrayEquals(getValues(perEventView.getImageMatrix()), getValues(coalescedView.getImageMatrix()), 0.001f);
+    }
+
+    @Test
+    public void warmedUpMovesStayUnderAllocationBound() throws IOException {
+        //a pinch that keeps spreading and closing, half of it to warm up and half of it measured
+        final TraceBuilder builder = new TraceBuilder();
+        builder.down(0, 100, 200);
+        builder.pointerDown(16, 1, 100, 200, 300, 200);
+        for (int i = 0; i < 2 * MEASURED_MOVES; i++) {
+            final float halfSpan = i % 2 == 0 ? 130 : 150;
+            builder.move(16, 200 - halfSpan, 200, 200 + halfSpan, 200);
+        }
+
+        final GestureTrace trace = readTrace(builder.build());
+
+        final ZoomageView view = createView();
+        final MotionEvent[] events = new MotionEvent[trace.getEventCount()];
+        final long startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < events.length; i++) {
+            events[i] = trace.obtainEvent(i, startTime);
+        }
+
+        final int firstMeasured = events.length - MEASURED_MOVES;
+        for (int i = 0; i < firstMeasured; i++) {
+            view.dispatchTouchEvent(events[i]);
+        }
+
+        final long startBytes = Allocations.getAllocatedBytes();
+        for (int i = firstMeasured; i < events.length; i++) {
+            view.dispatchTouchEvent(events[i]);
+        }
+        final long bytes = Allocations.getAllocatedBytes() - startBytes;
+
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+
+        if (startBytes >= 0) {
+            final long shadowBytes = getShadowMatrixBytes(view.getImageMatrix(), MEASURED_MOVES);
+            assertTrue(MEASURED_MOVES + " moves allocated " + bytes + " bytes, " + shadowBytes + " of them in the Matrix shadow, leaving over "
+                    + MAX_BYTES_WARMED_UP_MOVES, bytes - shadowBytes <= MAX_BYTES_WARMED_UP_MOVES);
+        }
+    }
+
+    /**
+     * Measures what Robolectric's Matrix shadow allocates on the calls the view makes for each move,
+     * warming them up first as the view's were.
+     */
+    private static long getShadowMatrixBytes(final Matrix start, final int moves) {
+        final Matrix matrix = new Matrix();
+        for (int i = 0; i < moves; i++) {
+            applyMove(matrix, start);
+        }
+
+        final long startBytes = Allocations.getAllocatedBytes();
+        for (int i = 0; i < moves; i++) {
+            applyMove(matrix, start);
+        }
+        return Allocations.getAllocatedBytes() - startBytes;
+    }
+
+    private static void applyMove(final Matrix matrix, final Matrix start) {
+        matrix.set(start);
+        matrix.postTranslate(1f, 1f);
+        matrix.postScale(1.01f, 1.01f, 200f, 200f);
+    }
+
+    @Test
+    public void recordedTraceReplaysIdentically() throws IOException {
+        final byte[] original = pinchTrace().build();
+        final GestureRecorder recorder = new GestureRecorder();
+
+        final ZoomageView recordedView = createView();
+        recordedView.setGestureRecorder(recorder);
+        readTrace(original).replay(recordedView);
+
+        final ZoomageView replayedView = createView();
+        readTrace(recorder.toByteArray()).replay(replayedView);
+
+        assertArrayEquals(original, recorder.toByteArray());
+        assertArrayEquals(getValues(recordedView.getImageMatrix()), getValues(replayedView.getImageMatrix()), 0f);
+    }
+
+    /**
+     * A two finger pinch around the center of the view, spreading symmetrically on the x axis.
+     */
+    private static TraceBuilder pinchTrace() {
+        final TraceBuilder builder = new TraceBuilder();
+        builder.down(0, 100, 200);
+        builder.pointerDown(16, 1, 100, 200, 300, 200);
+
+        for (int halfSpan = 130; halfSpan <= 200; halfSpan += 10) {
+            builder.move(16, 200 - halfSpan, 200, 200 + halfSpan, 200);
+        }
+
+        builder.pointerUp(16, 1, 0, 200, 400, 200);
+        builder.up(16, 0, 200);
+        return builder;
+    }
+
+    /**
+     * The pinch, followed by a single finger pan of the zoomed image.
+     */
+    private static TraceBuilder pinchThenPanTrace() {
+        final TraceBuilder builder = pinchTrace();
+        builder.down(1000, 200, 200);
+        for (int i = 1; i <= 5; i++) {
+            builder.move(16, 200 + i * 10, 200 + i * 5);
+        }
+        builder.up(16, 250, 225);
+        return builder;
+    }
+
+    private static GestureTrace readTrace(final byte[] trace) throws IOException {
+        return GestureTrace.read(new ByteArrayInputStream(trace));
+    }
+
+    private static ZoomageView createView() {
+        final ZoomageView view = new ZoomageView(RuntimeEnvironment.application);
+        view.setAutoCenter(false);
+
+        final Bitmap bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        view.setImageDrawable(new BitmapDrawable(RuntimeEnvironment.application.getResources(), bitmap));
+
+        //touch handling needs a parent to stop intercepting events
+        final FrameLayout parent = new FrameLayout(RuntimeEnvironment.application);
+        parent.addView(view, new FrameLayout.LayoutParams(VIEW_SIZE, VIEW_SIZE));
+        view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_SIZE, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, VIEW_SIZE, VIEW_SIZE);
+        return view;
+    }
+
+    /**
+     * Replay a trace through a new view, after replaying it once through another view so
+     * class loading and other first run costs aren't measured.
+     */
+    private static ReplayResult replay(final String name, final GestureTrace trace) {
+        trace.replay(createView());
+
+        final ZoomageView view = createView();
+        final MotionEvent[] events = new MotionEvent[trace.getEventCount()];
+        final long startTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < events.length; i++) {
+            events[i] = trace.obtainEvent(i, startTime);
+        }
+
+        final long startBytes = Allocations.getAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        for (MotionEvent event : events) {
+            view.dispatchTouchEvent(event);
+        }
+        final long nanos = System.nanoTime() - startNanos;
+        final long bytes = startBytes >= 0 ? Allocations.getAllocatedBytes() - startBytes : -1;
+
+        for (MotionEvent event : events) {
+            event.recycle();
+        }
+
+        final ReplayResult result = new ReplayResult(events.length, nanos, bytes, getValues(view.getImageMatrix()));
+
+        assertTrue(name + " took " + result.nanos / result.eventCount + "ns per event over " + result.eventCount
+                + " events, over " + MAX_NANOS_PER_EVENT, result.nanos <= MAX_NANOS_PER_EVENT * result.eventCount);
+        if (result.bytes >= 0) {
+            assertTrue(name + " allocated " + result.bytes / result.eventCount + " bytes per event over " + result.eventCount
+                    + " events, over " + MAX_BYTES_PER_EVENT, result.bytes <= MAX_BYTES_PER_EVENT * result.eventCount);
+        }
+
+        return result;
+    }
+
+    private static void assertMatrix(final ReplayResult result, final float scale, final float translateX, final float translateY) {
+        assertEquals("scale x", scale, result.values[Matrix.MSCALE_X], MATRIX_TOLERANCE);
+        assertEquals("scale y", scale, result.values[Matrix.MSCALE_Y], MATRIX_TOLERANCE);
+        assertEquals("translate x", translateX, result.values[Matrix.MTRANS_X], MATRIX_TOLERANCE);
+        assertEquals("translate y", translateY, result.values[Matrix.MTRANS_Y], MATRIX_TOLERANCE);
+    }
+
+    private static float[] getValues(final Matrix matrix) {
+        final float[] values = new float[9];
+        matrix.getValues(values);
+        return values;
+    }
+
+    private static final class ReplayResult {
+        final int eventCount;
+        final long nanos;
+        final long bytes;
+        final float[] values;
+
+        ReplayResult(final int eventCount, final long nanos, final long bytes, final float[] values) {
+            this.eventCount = eventCount;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Builds a trace from synthetic touch events, with pointer ids matching their indexes.
+     */
+    private static final class TraceBuilder {
+        private final GestureRecorder recorder = new GestureRecorder();
+        private long time;
+        private long downTime;
+
+        void down(final long delay, final float x, final float y) {
+            time += delay;
+            downTime = time;
+            record(MotionEvent.ACTION_DOWN, x, y);
+        }
+
+        void pointerDown(final long delay, final int index, final float... coordinates) {
+            time += delay;
+            record(MotionEvent.ACTION_POINTER_DOWN | (index << MotionEvent.ACTION_POINTER_INDEX_SHIFT), coordinates);
+        }
+
+        void move(final long delay, final float... coordinates) {
+            time += delay;
+            record(MotionEvent.ACTION_MOVE, coordinates);
+        }
+
+        void pointerUp(final long delay, final int index, final float... coordinates) {
+            time += delay;
+            record(MotionEvent.ACTION_POINTER_UP | (index << MotionEvent.ACTION_POINTER_INDEX_SHIFT), coordinates);
+        }
+
+        void up(final long delay, final float x, final float y) {
+            time += delay;
+            record(MotionEvent.ACTION_UP, x, y);
+        }
+
+        private void record(final int action, final float... coordinates) {
+            final int pointerCount = coordinates.length / 2;
+            final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[pointerCount];
+            final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[pointerCount];
+
+            for (int p = 0; p < pointerCount; p++) {
+                properties[p] = new MotionEvent.PointerProperties();
+                properties[p].id = p;
+                properties[p].toolType = MotionEvent.TOOL_TYPE_FINGER;
+                coords[p] = new MotionEvent.PointerCoords();
+                coords[p].x = coordinates[p * 2];
+                coords[p].y = coordinates[p * 2 + 1];
+                coords[p].pressure = 1f;
+                coords[p].size = 1f;
+            }
+
+            final MotionEvent event = MotionEvent.obtain(downTime, time, action, pointerCount, properties, coords,
+                    0, 0, 1f, 1f, 0, 0, 0, 0);
+            recorder.record(event, VIEW_SIZE, VIEW_SIZE);
+            event.recycle();
+        }
+
+        byte[] build() {
+            return recorder.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Draws tiled images the way {@link ZoomageView} does, without a {@link BitmapCache}, which is how
+ * every tiled image is shown unless the app sets one.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TiledImageDrawableTest {
+
+    private static final int IMAGE_SIZE = 4096;
+    private static final int TILE_SIZE = 256;
+    private static final long DECODE_TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void drawsTilesWithoutCache() throws IOException, InterruptedException {
+        final FakeImageSource imageSource = new FakeImageSource();
+        final TiledImageDrawable drawable = TiledImageDrawable.create(imageSource, null, 512);
+        drawable.setBounds(0, 0, IMAGE_SIZE, IMAGE_SIZE);
+
+        //the top left tile, at full resolution
+        drawable.setViewport(1f, 0, 0, TILE_SIZE - 1, TILE_SIZE - 1);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        drawable.draw(canvas);
+
+        awaitDecodes();
+        ShadowLooper.idleMainLooper();
+        drawable.draw(canvas);
+
+        assertEquals("sample size", 1, drawable.getSampleSize());
+        assertEquals("tiles decoded", 1, imageSource.tileDecodes.get());
+
+        drawable.recycle();
+        awaitDecodes();
+        assertTrue("source recycled", imageSource.recycled);
+    }
+
+    private static void awaitDecodes() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + DECODE_TIMEOUT_MILLIS;
+        while (DecodeScheduler.getQueueDepth() > 0 || DecodeScheduler.getActiveCount() > 0) {
+            assertTrue("decoding timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A square image of the given size that decodes every region as a blank bitmap, counting the
+     * regions decoded at full resolution.
+     */
+    private static final class FakeImageSource implements ImageSource {
+        final AtomicInteger tileDecodes = new AtomicInteger();
+        volatile boolean recycled;
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public int getWidth() {
+            return IMAGE_SIZE;
+        }
+
+        @Override
+        public int getHeight() {
+            return IMAGE_SIZE;
+        }
+
+        @Override
+        public int getTileSize() {
+            return TILE_SIZE;
+        }
+
+        @Nullable
+        @Override
+        public Bitmap decodeRegion(@NonNull final Rect region, final int sampleSize) {
+            if (sampleSize == 1) {
+                tileDecodes.incrementAndGet();
+            }
+
+            return Bitmap.createBitmap(Math.max(1, region.width() / sampleSize), Math.max(1, region.height() / sampleSize),
+                    Bitmap.Config.ARGB_8888);
+        }
+
+        @Override
+        public void recycle() {
+            recycled = true;
+        }
+
+        @Nullable
+        @Override
+        public String getCacheKey() {
+            return "fake";
+        }
+    }
+}
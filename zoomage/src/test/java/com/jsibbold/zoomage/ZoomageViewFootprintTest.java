@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 Jeffrey Sibbold
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsibbold.zoomage;
+
+import android.view.View;
+
+import androidx.appcompat.widget.AppCompatImageView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures what a {@link ZoomageView} costs over the image view it extends before it's ever touched,
+ * which adds up in lists and grids of many images. Gesture, animation and metrics state is only
+ * created once it's needed, so this is the view's fields, listeners and attribute reading.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ZoomageViewFootprintTest {
+
+    private static final int WARM_UP_VIEWS = 20;
+    private static final int MEASURED_VIEWS = 100;
+
+    //reading attributes under Robolectric allocates far more than on a device, which this leaves room for
+    private static final long MAX_BYTES_PER_VIEW = 16 * 1024L;
+
+    @Test
+    public void untouchedViewStaysSmall() {
+        final long imageViewBytes = measure(false);
+        final long zoomageViewBytes = measure(true);
+        if (imageViewBytes < 0 || zoomageViewBytes < 0) {
+            return;
+        }
+
+        final long bytesPerView = (zoomageViewBytes - imageViewBytes) / MEASURED_VIEWS;
+        assertTrue("a ZoomageView allocates " + bytesPerView + " bytes more than an image view, over "
+                + MAX_BYTES_PER_VIEW, bytesPerView <= MAX_BYTES_PER_VIEW);
+    }
+
+    /**
+     * Get the bytes allocated creating views, after creating a few first so class loading and
+     * other first run costs aren't measured.
+     *
+     * @param zoomage true to create ZoomageViews, false to create the image views they extend
+     * @return the bytes allocated, or -1 if allocations can't be measured
+     */
+    private static long measure(final boolean zoomage) {
+        for (int i = 0; i < WARM_UP_VIEWS; i++) {
+            createView(zoomage);
+        }
+
+        final long startBytes = Allocations.getAllocatedBytes();
+        for (int i = 0; i < MEASURED_VIEWS; i++) {
+            createView(zoomage);
+        }
+
+        return startBytes >= 0 ? Allocations.getAllocatedBytes() - startBytes : -1;
+    }
+
+    private static View createView(final boolean zoomage) {
+        return zoomage ? new ZoomageView(RuntimeEnvironment.application)
+                : new AppCompatImageView(RuntimeEnvironment.application);
+    }
+}